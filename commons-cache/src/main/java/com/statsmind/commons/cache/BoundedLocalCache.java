@@ -0,0 +1,1094 @@
+package com.statsmind.commons.cache;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * {@link Cache} on a ConcurrentHashMap, with W-TinyLFU eviction.
+ * <p>
+ * New entries go to a small LRU window (1% of the maximum), entries leaving the window compete with the
+ * least recently used entry of the main space for admission, the one with the higher {@link FrequencySketch}
+ * estimate stays. The main space is a segmented LRU: probation for entries accessed once, protected (80%)
+ * for entries accessed again.
+ * <p>
+ * Reads only touch the map and a lossy {@link ReadBuffer}; writes go to the map and queue a task. Buffered
+ * reads and writes are replayed on the policy by whichever thread gets the eviction lock, so the deques and
+ * the sketch are never shared. Expiration is variable per entry: each entry has a deadline, and a heap of
+ * deadlines visited during maintenance removes the expired ones; reads ignore expired entries right away.
+ */
+final class BoundedLocalCache<K, V> implements LoadingCache<K, V> {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final long NEVER = Long.MAX_VALUE;
+    /**
+     * a candidate this rarely used is not admitted at random against a more popular victim
+     */
+    private static final int ADMIT_HASHDOS_THRESHOLD = 5;
+    /**
+     * bytes of a node, its map entry and table slot on a 64-bit JVM with compressed oops
+     */
+    private static final long ENTRY_OVERHEAD = 120;
+    private static final int MEMORY_SAMPLE = 256;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final CacheLoader<K, V> loader;
+    private final Weigher<? super K, ? super V> weigher;
+    private final Expiry<? super K, ? super V> expiry;
+    private final RemovalListener<? super K, ? super V> removalListener;
+    private final RemovalListener<? super K, ? super V> evictionListener;
+    private final EntryConsumer<K, V> demotionListener;
+    private final Executor executor;
+    private final StatsCounter stats;
+    private final CacheMetrics<K> metrics;
+    private final HotKeySketch<K> hotKeys;
+    private final long refreshAfterWriteNanos;
+    private final boolean evicts;
+
+    private final ReadBuffer<Node<K, V>> readBuffer = new ReadBuffer<>();
+    private final ConcurrentLinkedQueue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * guarded by evictionLock
+     */
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final FrequencySketch sketch;
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedDeque = new AccessOrderDeque<>();
+    private final PriorityQueue<Deadline<K, V>> deadlines = new PriorityQueue<>();
+    /**
+     * deadlines of nodes removed or rescheduled earlier, still in the heap where they hold their node
+     */
+    private int staleDeadlines;
+    private long weightedSize;
+    private long windowWeightedSize;
+    private long protectedWeightedSize;
+
+    BoundedLocalCache(CacheBuilder<? super K, ? super V> builder, CacheLoader<K, V> loader) {
+        this(builder, loader, null);
+    }
+
+    /**
+     * @param demotionListener receives the entries evicted by size with their remaining time to live, before
+     *                         the eviction listener of the builder, under the lock of the map bin of the key
+     */
+    BoundedLocalCache(CacheBuilder<? super K, ? super V> builder, CacheLoader<K, V> loader,
+                      EntryConsumer<K, V> demotionListener) {
+        this.evictionListener = builder.getEvictionListener();
+        this.demotionListener = demotionListener;
+        this.data = new ConcurrentHashMap<>(builder.getInitialCapacity());
+        this.loader = loader;
+        this.weigher = builder.getWeigher();
+        this.expiry = builder.getExpiry();
+        this.removalListener = builder.getRemovalListener();
+        this.executor = builder.getExecutor();
+        this.stats = builder.isRecordingStats() ? new StatsCounter() : null;
+        this.hotKeys = builder.getHotKeys() > 0 ? new HotKeySketch<>(builder.getHotKeys(), 1 << 12) : null;
+        Weigher<? super K, ? super V> memoryWeigher = builder.getMemoryWeigher();
+        this.metrics = stats == null ? null : new CacheMetrics<>(builder.getName(), stats, hotKeys,
+            this::estimatedSize, () -> estimatedMemory(memoryWeigher));
+        this.refreshAfterWriteNanos = builder.getRefreshAfterWriteNanos();
+        this.evicts = builder.getMaximum() != CacheBuilder.UNSET;
+
+        this.maximum = evicts ? builder.getMaximum() : Long.MAX_VALUE;
+        this.windowMaximum = evicts ? Math.max(1, maximum / 100) : Long.MAX_VALUE;
+        this.protectedMaximum = evicts ? (long) ((maximum - windowMaximum) * 0.8) : Long.MAX_VALUE;
+        this.sketch = evicts ? new FrequencySketch(builder.isWeighted() ? Math.min(maximum, 1 << 16) : maximum) : null;
+    }
+
+    /* ---------------- reads ---------------- */
+
+    @Override
+    public V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        long now = System.nanoTime();
+
+        if (node == null || node.isExpired(now)) {
+            recordMisses(1);
+            return null;
+        }
+
+        return afterRead(node, now);
+    }
+
+    @Override
+    public Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public V get(K key) {
+        return get(key, loader::load);
+    }
+
+    @Override
+    public V get(K key, Function<? super K, ? extends V> mappingFunction) {
+        Node<K, V> node = data.get(key);
+        long now = System.nanoTime();
+
+        if (node != null && !node.isExpired(now)) {
+            return afterRead(node, now);
+        }
+
+        recordMisses(1);
+        return compute(key, mappingFunction, -1);
+    }
+
+    /**
+     * @param ttlNanos time to live of the entry if added, negative to use the expiry of the cache
+     * @return the value on heap, or added by the mapping function; null if neither
+     * @see #get(Object, Function)
+     */
+    V get(K key, Function<? super K, ? extends V> mappingFunction, long ttlNanos) {
+        Node<K, V> node = data.get(key);
+        long now = System.nanoTime();
+
+        if (node != null && !node.isExpired(now)) {
+            return afterRead(node, now);
+        }
+
+        recordMisses(1);
+        return compute(key, mappingFunction, ttlNanos);
+    }
+
+    /**
+     * load the value under the lock of the map bin, unless another thread did it meanwhile
+     *
+     * @param ttlNanos time to live of the loaded entry, negative to use the expiry of the cache
+     */
+    private V compute(K key, Function<? super K, ? extends V> mappingFunction, long ttlNanos) {
+        Node<K, V>[] removed = newNodeArray();
+        Node<K, V>[] added = newNodeArray();
+        long[] loadTime = new long[1];
+
+        Node<K, V> node;
+        try {
+            node = data.compute(key, (k, prior) -> {
+                long now = System.nanoTime();
+                if (prior != null && !prior.isExpired(now)) {
+                    return prior;
+                }
+
+                if (prior != null) {
+                    prior.retire();
+                    removed[0] = prior;
+                }
+
+                long startedAt = System.nanoTime();
+                V value;
+                try {
+                    value = mappingFunction.apply(k);
+                } finally {
+                    loadTime[0] = System.nanoTime() - startedAt;
+                }
+
+                if (value == null) {
+                    return null;
+                }
+
+                added[0] = newNode(k, value, System.nanoTime(), ttlNanos);
+                return added[0];
+            });
+        } catch (RuntimeException | Error e) {
+            if (stats != null) {
+                stats.recordLoadFailure(loadTime[0]);
+            }
+            throw e;
+        }
+
+        if (removed[0] != null) {
+            Node<K, V> prior = removed[0];
+            notifyRemoval(prior.key, prior.value, RemovalCause.EXPIRED);
+            afterWrite(() -> removeFromPolicy(prior));
+        }
+
+        if (added[0] != null) {
+            if (stats != null) {
+                stats.recordLoadSuccess(loadTime[0]);
+            }
+            Node<K, V> newNode = added[0];
+            afterWrite(() -> addToPolicy(newNode));
+            return newNode.value;
+        }
+
+        if (node == null) {
+            if (stats != null && loadTime[0] > 0) {
+                stats.recordLoadSuccess(loadTime[0]);
+            }
+            return null;
+        }
+
+        // loaded by another thread meanwhile
+        return afterRead(node, System.nanoTime());
+    }
+
+    @Override
+    public Map<K, V> getAll(Iterable<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        Set<K> missing = new HashSet<>();
+        long now = System.nanoTime();
+
+        for (K key : keys) {
+                Node<K, V> node = data.get(key);
+            if (node == null || node.isExpired(now)) {
+                result.put(key, null);
+                missing.add(key);
+            } else {
+                result.put(key, afterRead(node, now));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            recordMisses(missing.size());
+
+            long startedAt = System.nanoTime();
+            Map<K, V> loaded;
+            try {
+                loaded = loader.loadAll(missing);
+            } catch (RuntimeException | Error e) {
+                if (stats != null) {
+                    stats.recordLoadFailure(System.nanoTime() - startedAt);
+                }
+                throw e;
+            }
+            if (stats != null) {
+                stats.recordLoadSuccess(System.nanoTime() - startedAt);
+            }
+
+            for (K key : missing) {
+                V value = loaded.get(key);
+                if (value != null) {
+                    put(key, value);
+                    result.put(key, value);
+                }
+            }
+        }
+
+        result.values().removeIf(value -> value == null);
+        return result;
+    }
+
+    private V afterRead(Node<K, V> node, long now) {
+        V value = node.value;
+
+        if (stats != null) {
+            stats.recordHits(1);
+        }
+
+        if (expiry != null && node.expiresAt != NEVER) {
+            long duration = expiry.expireAfterRead(node.key, value, now, node.expiresAt - now);
+            node.expiresAt = deadlineOf(now, duration);
+        }
+
+        if (readBuffer.offer(node) == ReadBuffer.FULL) {
+            scheduleDrain();
+        }
+
+        refreshIfNeeded(node, now);
+        return value;
+    }
+
+    private void recordMisses(int count) {
+        if (stats != null) {
+            stats.recordMisses(count);
+        }
+    }
+
+    /* ---------------- writes ---------------- */
+
+    @Override
+    public void put(K key, V value) {
+        put(key, value, -1);
+    }
+
+    @Override
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        put(key, value, Math.max(0, unit.toNanos(ttl)));
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        map.forEach(this::put);
+    }
+
+    /**
+     * @param ttlNanos time to live of the entry, negative to use the expiry of the cache
+     */
+    private void put(K key, V value, long ttlNanos) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+
+        Node<K, V>[] expired = newNodeArray();
+        Node<K, V>[] added = newNodeArray();
+        Object[] oldValue = new Object[1];
+
+        Node<K, V> node = data.compute(key, (k, prior) -> {
+            long now = System.nanoTime();
+
+            if (prior == null || prior.isExpired(now)) {
+                if (prior != null) {
+                    prior.retire();
+                    expired[0] = prior;
+                }
+                added[0] = newNode(k, value, now, ttlNanos);
+                return added[0];
+            }
+
+            oldValue[0] = prior.value;
+            update(prior, value, now, ttlNanos);
+            return prior;
+        });
+
+        if (expired[0] != null) {
+            Node<K, V> prior = expired[0];
+            notifyRemoval(prior.key, prior.value, RemovalCause.EXPIRED);
+            afterWrite(() -> removeFromPolicy(prior));
+        }
+
+        if (added[0] != null) {
+            afterWrite(() -> addToPolicy(node));
+        } else {
+            @SuppressWarnings("unchecked")
+            V replaced = (V) oldValue[0];
+            notifyRemoval(key, replaced, RemovalCause.REPLACED);
+            afterWrite(() -> updateInPolicy(node));
+        }
+    }
+
+    private Node<K, V> newNode(K key, V value, long now, long ttlNanos) {
+        Node<K, V> node = new Node<>(key, value, weigh(key, value), now);
+
+        if (ttlNanos >= 0) {
+            node.expiresAt = deadlineOf(now, ttlNanos);
+        } else if (expiry != null) {
+            node.expiresAt = deadlineOf(now, expiry.expireAfterCreate(key, value, now));
+        }
+
+        return node;
+    }
+
+    /**
+     * replace the value in place, called under the lock of the map bin
+     */
+    private void update(Node<K, V> node, V value, long now, long ttlNanos) {
+        node.weight = weigh(node.key, value);
+        node.writeTime = now;
+        node.value = value;
+
+        if (ttlNanos >= 0) {
+            node.expiresAt = deadlineOf(now, ttlNanos);
+        } else if (expiry != null) {
+            long current = node.expiresAt == NEVER ? NEVER : node.expiresAt - now;
+            node.expiresAt = deadlineOf(now, expiry.expireAfterUpdate(node.key, value, now, current));
+        }
+    }
+
+    private int weigh(K key, V value) {
+        if (weigher == null) {
+            return 1;
+        }
+
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("negative weight " + weight + " for key " + key);
+        }
+        return weight;
+    }
+
+    private static long deadlineOf(long now, long durationNanos) {
+        if (durationNanos == NEVER || durationNanos > NEVER / 2) {
+            return NEVER;
+        }
+
+        long deadline = now + Math.max(0, durationNanos);
+        // NEVER is reserved
+        return deadline == NEVER ? NEVER - 1 : deadline;
+    }
+
+    @Override
+    public void invalidate(K key) {
+        Node<K, V>[] removed = newNodeArray();
+
+        data.computeIfPresent(key, (k, node) -> {
+            node.retire();
+            removed[0] = node;
+            return null;
+        });
+
+        Node<K, V> node = removed[0];
+        if (node != null) {
+            RemovalCause cause = node.isExpired(System.nanoTime()) ? RemovalCause.EXPIRED : RemovalCause.EXPLICIT;
+            notifyRemoval(node.key, node.value, cause);
+            afterWrite(() -> removeFromPolicy(node));
+        }
+    }
+
+    @Override
+    public void invalidateAll(Iterable<? extends K> keys) {
+        for (K key : keys) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (K key : data.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public long estimatedSize() {
+        return data.mappingCount();
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats == null ? new CacheStats(0, 0, 0, 0, 0, 0, 0) : stats.snapshot();
+    }
+
+    @Override
+    public CacheMetrics<K> metrics() {
+        return metrics;
+    }
+
+    /**
+     * @param memoryWeigher bytes of the key and value of an entry, null to only count the overhead per entry
+     * @return the average size of a sample of the entries times the number of entries
+     */
+    private long estimatedMemory(Weigher<? super K, ? super V> memoryWeigher) {
+        long size = data.mappingCount();
+        if (memoryWeigher == null || size == 0) {
+            return size * ENTRY_OVERHEAD;
+        }
+
+        long sampled = 0;
+        long bytes = 0;
+        for (Node<K, V> node : data.values()) {
+            V value = node.value;
+            if (value != null) {
+                bytes += memoryWeigher.weigh(node.key, value);
+                if (++sampled == MEMORY_SAMPLE) {
+                    break;
+                }
+            }
+        }
+
+        return size * ENTRY_OVERHEAD + (sampled == 0 ? 0 : bytes * size / sampled);
+    }
+
+    /* ---------------- refresh ---------------- */
+
+    private void refreshIfNeeded(Node<K, V> node, long now) {
+        if (refreshAfterWriteNanos <= 0 || loader == null || now - node.writeTime < refreshAfterWriteNanos) {
+            return;
+        }
+
+        if (Node.REFRESHING.compareAndSet(node, 0, 1)) {
+            reload(node);
+        }
+    }
+
+    @Override
+    public CompletableFuture<V> refresh(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            return CompletableFuture.supplyAsync(() -> get(key), executor);
+        }
+
+        Node.REFRESHING.set(node, 1);
+        return reload(node);
+    }
+
+    private CompletableFuture<V> reload(Node<K, V> node) {
+        K key = node.key;
+        V oldValue = node.value;
+        long startedAt = System.nanoTime();
+
+        return CompletableFuture.supplyAsync(() -> loader.reload(key, oldValue), executor)
+            .whenComplete((value, throwable) -> {
+                Node.REFRESHING.set(node, 0);
+
+                if (throwable != null) {
+                    if (stats != null) {
+                        stats.recordLoadFailure(System.nanoTime() - startedAt);
+                    }
+                    return;
+                }
+
+                if (stats != null) {
+                    stats.recordLoadSuccess(System.nanoTime() - startedAt);
+                }
+
+                boolean[] replaced = new boolean[1];
+                data.computeIfPresent(key, (k, current) -> {
+                    // replaced or invalidated meanwhile: the newer write wins
+                    if (current != node || current.value != oldValue) {
+                        return current;
+                    }
+
+                    replaced[0] = true;
+                    if (value == null) {
+                        node.retire();
+                        return null;
+                    }
+
+                    update(node, value, System.nanoTime(), -1);
+                    return node;
+                });
+
+                if (replaced[0]) {
+                    notifyRemoval(key, oldValue, value == null ? RemovalCause.EXPLICIT : RemovalCause.REPLACED);
+                    afterWrite(value == null ? () -> removeFromPolicy(node) : () -> updateInPolicy(node));
+                }
+            });
+    }
+
+    /* ---------------- maintenance ---------------- */
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        scheduleDrain();
+    }
+
+    /**
+     * replay the buffers if no other thread is doing it; a thread releasing the lock checks the write buffer
+     * again, so no write is left behind
+     */
+    private void scheduleDrain() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (!writeBuffer.isEmpty());
+    }
+
+    @Override
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void maintenance() {
+        readBuffer.drainTo(this::onRead);
+
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null) {
+            task.run();
+        }
+
+        expireEntries(System.nanoTime());
+
+        if (evicts) {
+            evictEntries();
+        }
+    }
+
+    private void addToPolicy(Node<K, V> node) {
+        if (!node.isAlive() || node.queue >= 0) {
+            return;
+        }
+
+        node.policyWeight = node.weight;
+        weightedSize += node.policyWeight;
+        windowWeightedSize += node.policyWeight;
+        node.queue = WINDOW;
+        window.addLast(node);
+
+        if (evicts) {
+            sketch.increment(node.key.hashCode());
+        }
+
+        scheduleExpiry(node);
+    }
+
+    private void updateInPolicy(Node<K, V> node) {
+        if (!node.isAlive() || node.queue < 0) {
+            return;
+        }
+
+        int delta = node.weight - node.policyWeight;
+        node.policyWeight = node.weight;
+        weightedSize += delta;
+        if (node.queue == WINDOW) {
+            windowWeightedSize += delta;
+        } else if (node.queue == PROTECTED) {
+            protectedWeightedSize += delta;
+        }
+
+        onAccess(node);
+        scheduleExpiry(node);
+    }
+
+    private void removeFromPolicy(Node<K, V> node) {
+        unlink(node);
+        if (node.scheduledAt != NEVER) {
+            node.scheduledAt = NEVER;
+            onStaleDeadline();
+        }
+        node.die();
+    }
+
+    private void unlink(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                windowWeightedSize -= node.policyWeight;
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedDeque.remove(node);
+                protectedWeightedSize -= node.policyWeight;
+                break;
+            default:
+                return;
+        }
+
+        weightedSize -= node.policyWeight;
+        node.queue = -1;
+    }
+
+    /**
+     * a read buffered by {@link #afterRead}, hot keys are recorded here rather than on the read path so that
+     * reads stay lock-free and allocation-free; the lossy read buffer makes it a sample of the hits
+     */
+    private void onRead(Node<K, V> node) {
+        if (hotKeys != null) {
+            hotKeys.record(node.key);
+        }
+        onAccess(node);
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queue < 0) {
+            return;
+        }
+
+        if (evicts) {
+            sketch.increment(node.key.hashCode());
+        }
+
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToBack(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedDeque.addLast(node);
+                protectedWeightedSize += node.policyWeight;
+                demoteFromProtected();
+                break;
+            case PROTECTED:
+                protectedDeque.moveToBack(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void demoteFromProtected() {
+        while (protectedWeightedSize > protectedMaximum) {
+            Node<K, V> node = protectedDeque.pollFirst();
+            if (node == null) {
+                break;
+            }
+
+            protectedWeightedSize -= node.policyWeight;
+            node.queue = PROBATION;
+            probation.addLast(node);
+        }
+    }
+
+    /**
+     * move the overflow of the window to probation, then evict from the main space the loser of each
+     * candidate-victim duel until the cache fits
+     */
+    private void evictEntries() {
+        int candidates = 0;
+        while (windowWeightedSize > windowMaximum) {
+            Node<K, V> node = window.pollFirst();
+            if (node == null) {
+                break;
+            }
+
+            windowWeightedSize -= node.policyWeight;
+            node.queue = PROBATION;
+            probation.addLast(node);
+            candidates++;
+        }
+
+        while (weightedSize > maximum) {
+            Node<K, V> victim = probation.peekFirst();
+            if (victim == null) {
+                victim = protectedDeque.peekFirst();
+            }
+            if (victim == null) {
+                victim = window.peekFirst();
+            }
+            if (victim == null) {
+                break;
+            }
+
+            Node<K, V> candidate = candidates > 0 ? probation.peekLast() : null;
+            if (candidate == null || candidate == victim) {
+                candidates = Math.max(0, candidates - 1);
+                evictEntry(victim, RemovalCause.SIZE, 0);
+                continue;
+            }
+
+            candidates--;
+            if (admit(candidate, victim)) {
+                evictEntry(victim, RemovalCause.SIZE, 0);
+            } else {
+                evictEntry(candidate, RemovalCause.SIZE, 0);
+            }
+        }
+    }
+
+    private boolean admit(Node<K, V> candidate, Node<K, V> victim) {
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+        int victimFrequency = sketch.frequency(victim.key.hashCode());
+
+        if (candidateFrequency > victimFrequency) {
+            return true;
+        }
+        if (candidateFrequency <= ADMIT_HASHDOS_THRESHOLD) {
+            return false;
+        }
+
+        // a small random admission keeps an attacker from pinning a victim with colliding keys
+        return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    private void scheduleExpiry(Node<K, V> node) {
+        long expiresAt = node.expiresAt;
+        if (expiresAt != NEVER && (node.scheduledAt == NEVER || expiresAt - node.scheduledAt < 0)) {
+            if (node.scheduledAt != NEVER) {
+                onStaleDeadline();
+            }
+            node.scheduledAt = expiresAt;
+            deadlines.add(new Deadline<>(node, expiresAt));
+        }
+    }
+
+    /**
+     * once most of the heap is stale, drop the stale deadlines, so that removed nodes with their keys and values
+     * are not kept until their time to live has passed
+     */
+    private void onStaleDeadline() {
+        if (++staleDeadlines >= 64 && staleDeadlines > deadlines.size() / 2) {
+            deadlines.removeIf(Deadline::isStale);
+            staleDeadlines = 0;
+        }
+    }
+
+    private void expireEntries(long now) {
+        Deadline<K, V> deadline;
+        while ((deadline = deadlines.peek()) != null && now - deadline.time >= 0) {
+            deadlines.poll();
+
+            Node<K, V> node = deadline.node;
+            if (deadline.isStale()) {
+                // rescheduled earlier or already removed
+                if (staleDeadlines > 0) {
+                    staleDeadlines--;
+                }
+                continue;
+            }
+
+            node.scheduledAt = NEVER;
+            if (!evictEntry(node, RemovalCause.EXPIRED, now)) {
+                // extended by a read or an update meanwhile
+                scheduleExpiry(node);
+            }
+        }
+    }
+
+    /**
+     * @return false if the entry has not expired after all
+     */
+    private boolean evictEntry(Node<K, V> node, RemovalCause cause, long now) {
+        boolean[] removed = new boolean[1];
+        boolean[] resurrected = new boolean[1];
+
+        data.computeIfPresent(node.key, (k, current) -> {
+            if (current != node) {
+                return current;
+            }
+            if (cause == RemovalCause.EXPIRED && !node.isExpired(now)) {
+                resurrected[0] = true;
+                return current;
+            }
+
+            node.retire();
+            removed[0] = true;
+
+            // under the lock of the bin, so that a write or an invalidation of the key cannot run in between
+            if (cause == RemovalCause.SIZE && demotionListener != null) {
+                demote(node);
+            }
+            return null;
+        });
+
+        if (resurrected[0]) {
+            return false;
+        }
+
+        // if not removed here, it was removed by another thread which queued the removal from the policy
+        removeFromPolicy(node);
+
+        if (removed[0]) {
+            if (stats != null) {
+                stats.recordEviction(node.policyWeight, cause);
+            }
+            notifyEviction(node.key, node.value, cause);
+            notifyRemoval(node.key, node.value, cause);
+        }
+
+        return true;
+    }
+
+    private void notifyEviction(K key, V value, RemovalCause cause) {
+        if (evictionListener == null) {
+            return;
+        }
+
+        try {
+            evictionListener.onRemoval(key, value, cause);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void demote(Node<K, V> node) {
+        long ttlNanos = remainingNanos(node, System.nanoTime());
+        if (ttlNanos == 0) {
+            return;
+        }
+
+        try {
+            demotionListener.accept(node.key, node.value, ttlNanos);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param action called with every entry which has not expired, and its remaining time to live
+     */
+    void forEach(EntryConsumer<K, V> action) {
+        long now = System.nanoTime();
+        for (Node<K, V> node : data.values()) {
+            long ttlNanos = remainingNanos(node, now);
+            if (ttlNanos != 0) {
+                action.accept(node.key, node.value, ttlNanos);
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds before the entry expires, -1 if it never does, 0 if it has expired
+     */
+    private static long remainingNanos(Node<?, ?> node, long now) {
+        long deadline = node.expiresAt;
+        if (deadline == NEVER) {
+            return -1;
+        }
+        return Math.max(0, deadline - now);
+    }
+
+    private void notifyRemoval(K key, V value, RemovalCause cause) {
+        if (removalListener == null) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> removalListener.onRemoval(key, value, cause));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newNodeArray() {
+        return (Node<K, V>[]) new Node<?, ?>[1];
+    }
+
+    /**
+     * an entry with its remaining time to live, in nanoseconds, -1 if it never expires
+     */
+    interface EntryConsumer<K, V> {
+        void accept(K key, V value, long ttlNanos);
+    }
+
+    static final class Node<K, V> {
+        static final AtomicIntegerFieldUpdater<Node> REFRESHING =
+            AtomicIntegerFieldUpdater.newUpdater(Node.class, "refreshing");
+
+        private static final int ALIVE = 0;
+        private static final int RETIRED = 1;
+        private static final int DEAD = 2;
+
+        final K key;
+        volatile V value;
+        volatile int weight;
+        volatile long writeTime;
+        volatile long expiresAt = NEVER;
+        volatile int refreshing;
+        private volatile int state = ALIVE;
+
+        /**
+         * guarded by the eviction lock
+         */
+        int queue = -1;
+        int policyWeight;
+        long scheduledAt = NEVER;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight, long now) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = now;
+        }
+
+        boolean isExpired(long now) {
+            long deadline = expiresAt;
+            return deadline != NEVER && now - deadline >= 0;
+        }
+
+        boolean isAlive() {
+            return state == ALIVE;
+        }
+
+        /**
+         * removed from the map, still in the policy
+         */
+        void retire() {
+            state = RETIRED;
+        }
+
+        /**
+         * removed from the map and the policy
+         */
+        void die() {
+            state = DEAD;
+        }
+    }
+
+    private static final class Deadline<K, V> implements Comparable<Deadline<K, V>> {
+        private final Node<K, V> node;
+        private final long time;
+
+        Deadline(Node<K, V> node, long time) {
+            this.node = node;
+            this.time = time;
+        }
+
+        boolean isStale() {
+            return node.scheduledAt != time || node.queue < 0;
+        }
+
+        @Override
+        public int compareTo(Deadline<K, V> other) {
+            return Long.compare(time - other.time, 0);
+        }
+    }
+
+    /**
+     * doubly linked list through the nodes themselves, from least to most recently used
+     */
+    private static final class AccessOrderDeque<K, V> {
+        private Node<K, V> first;
+        private Node<K, V> last;
+
+        Node<K, V> peekFirst() {
+            return first;
+        }
+
+        Node<K, V> peekLast() {
+            return last;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        Node<K, V> pollFirst() {
+            Node<K, V> node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+
+            if (node.next == null) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.statsmind.commons.cache;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * An in-process cache, bounded by size or weight when built with a maximum, see {@link CacheBuilder}.
+ * <p>
+ * Reads do not lock, implementations are thread-safe. Null keys and values are not allowed.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public interface Cache<K, V> {
+    /**
+     * @param key
+     * @return the value, or null if absent or expired
+     */
+    V getIfPresent(K key);
+
+    /**
+     * return the value, or compute it with the mapping function if absent; concurrent calls for the same key
+     * wait for one computation
+     *
+     * @param key
+     * @param mappingFunction returns null to leave the key absent
+     * @return
+     */
+    V get(K key, Function<? super K, ? extends V> mappingFunction);
+
+    /**
+     * @param keys
+     * @return the present values, absent keys are left out
+     */
+    Map<K, V> getAllPresent(Iterable<? extends K> keys);
+
+    void put(K key, V value);
+
+    /**
+     * put with its own time to live, overriding the expiry of the cache for this entry
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @param unit
+     */
+    void put(K key, V value, long ttl, TimeUnit unit);
+
+    void putAll(Map<? extends K, ? extends V> map);
+
+    void invalidate(K key);
+
+    void invalidateAll(Iterable<? extends K> keys);
+
+    void invalidateAll();
+
+    /**
+     * @return number of entries, may include entries which have expired but are not cleaned up yet
+     */
+    long estimatedSize();
+
+    /**
+     * @return snapshot of the statistics, all zero unless built with {@link CacheBuilder#recordStats()}
+     */
+    CacheStats stats();
+
+    /**
+     * @return live metrics, null unless built with {@link CacheBuilder#recordStats()}
+     */
+    CacheMetrics<K> metrics();
+
+    /**
+     * run the pending maintenance now: replay the buffered reads and writes, evict and expire entries
+     */
+    void cleanUp();
+}
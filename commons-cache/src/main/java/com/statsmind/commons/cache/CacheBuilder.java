@@ -0,0 +1,320 @@
+package com.statsmind.commons.cache;
+
+import com.statsmind.commons.concurrent.ThreadPool;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds {@link Cache} and {@link LoadingCache} instances.
+ * <p>
+ * Usage:
+ * <pre>
+ * LoadingCache&lt;Long, User&gt; users = CacheBuilder.newBuilder()
+ *     .maximumSize(10_000)
+ *     .expireAfterWrite(10, TimeUnit.MINUTES)
+ *     .refreshAfterWrite(1, TimeUnit.MINUTES)
+ *     .recordStats()
+ *     .build(id -&gt; userDao.findById(id));
+ * </pre>
+ * <p>
+ * Without {@link #maximumSize} or {@link #maximumWeight} the cache is unbounded. Loads, refreshes and removal
+ * notifications run on {@link ThreadPool#getInstance()} unless another executor is given.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public final class CacheBuilder<K, V> {
+    static final long UNSET = -1;
+
+    private String name = "cache";
+    private int initialCapacity = 16;
+    private long maximum = UNSET;
+    private Weigher<? super K, ? super V> weigher;
+    private Expiry<? super K, ? super V> expiry;
+    private RemovalListener<? super K, ? super V> removalListener;
+    private RemovalListener<? super K, ? super V> evictionListener;
+    private Executor executor;
+    private boolean recordStats;
+    private int hotKeys;
+    private Weigher<? super K, ? super V> memoryWeigher;
+    private long refreshAfterWriteNanos;
+
+    private CacheBuilder() {
+    }
+
+    public static CacheBuilder<Object, Object> newBuilder() {
+        return new CacheBuilder<>();
+    }
+
+    /**
+     * @param name tags the metrics of the cache
+     * @return
+     */
+    public CacheBuilder<K, V> name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public CacheBuilder<K, V> initialCapacity(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity must not be negative");
+        }
+
+        this.initialCapacity = initialCapacity;
+        return this;
+    }
+
+    /**
+     * @param maximumSize number of entries beyond which the least valuable ones are evicted
+     * @return
+     */
+    public CacheBuilder<K, V> maximumSize(long maximumSize) {
+        if (maximum != UNSET) {
+            throw new IllegalStateException("maximum size or weight already set to " + maximum);
+        }
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative");
+        }
+
+        this.maximum = maximumSize;
+        return this;
+    }
+
+    /**
+     * @param maximumWeight total weight beyond which the least valuable entries are evicted
+     * @param weigher
+     * @return
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> maximumWeight(long maximumWeight,
+                                                                         Weigher<? super K1, ? super V1> weigher) {
+        if (maximum != UNSET) {
+            throw new IllegalStateException("maximum size or weight already set to " + maximum);
+        }
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight must not be negative");
+        }
+
+        CacheBuilder<K1, V1> self = self();
+        self.maximum = maximumWeight;
+        self.weigher = weigher;
+        return self;
+    }
+
+    /**
+     * every entry expires the given time after it was created or last replaced
+     *
+     * @param duration
+     * @param unit
+     * @return
+     */
+    public CacheBuilder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+        long nanos = unit.toNanos(duration);
+        return expireAfter(new Expiry<Object, Object>() {
+            @Override
+            public long expireAfterCreate(Object key, Object value, long currentTime) {
+                return nanos;
+            }
+        });
+    }
+
+    /**
+     * every entry expires the given time after it was last read or written
+     *
+     * @param duration
+     * @param unit
+     * @return
+     */
+    public CacheBuilder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+        long nanos = unit.toNanos(duration);
+        return expireAfter(new Expiry<Object, Object>() {
+            @Override
+            public long expireAfterCreate(Object key, Object value, long currentTime) {
+                return nanos;
+            }
+
+            @Override
+            public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+                return nanos;
+            }
+        });
+    }
+
+    /**
+     * time to live computed for each entry
+     *
+     * @param expiry
+     * @return
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> expireAfter(Expiry<? super K1, ? super V1> expiry) {
+        if (this.expiry != null) {
+            throw new IllegalStateException("expiry already set");
+        }
+
+        CacheBuilder<K1, V1> self = self();
+        self.expiry = expiry;
+        return self;
+    }
+
+    /**
+     * an entry read the given time after it was written is reloaded in the background, the old value is
+     * served meanwhile; only for caches built with a {@link CacheLoader}
+     *
+     * @param duration
+     * @param unit
+     * @return
+     */
+    public CacheBuilder<K, V> refreshAfterWrite(long duration, TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("refreshAfterWrite must be positive");
+        }
+
+        this.refreshAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> removalListener(RemovalListener<? super K1, ? super V1> removalListener) {
+        CacheBuilder<K1, V1> self = self();
+        self.removalListener = removalListener;
+        return self;
+    }
+
+    /**
+     * @param evictionListener called synchronously, under the eviction lock, for every entry evicted by size or
+     *                         expiration; must be fast and must not use the cache
+     * @return
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> evictionListener(RemovalListener<? super K1, ? super V1> evictionListener) {
+        CacheBuilder<K1, V1> self = self();
+        self.evictionListener = evictionListener;
+        return self;
+    }
+
+    /**
+     * @param executor runs refreshes and removal notifications
+     * @return
+     */
+    public CacheBuilder<K, V> executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public CacheBuilder<K, V> recordStats() {
+        this.recordStats = true;
+        return this;
+    }
+
+    /**
+     * record statistics and track the most accessed keys, see {@link CacheMetrics#getHotKeys()}
+     *
+     * @param count number of hot keys to track
+     * @return
+     */
+    public CacheBuilder<K, V> recordHotKeys(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
+
+        this.recordStats = true;
+        this.hotKeys = count;
+        return this;
+    }
+
+    /**
+     * @param memoryWeigher estimates the bytes of the key and value of an entry, for
+     *                      {@link CacheMetrics#getEstimatedMemory()}
+     * @return
+     */
+    public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> memoryWeigher(Weigher<? super K1, ? super V1> memoryWeigher) {
+        CacheBuilder<K1, V1> self = self();
+        self.memoryWeigher = memoryWeigher;
+        return self;
+    }
+
+    public <K1 extends K, V1 extends V> Cache<K1, V1> build() {
+        if (refreshAfterWriteNanos > 0) {
+            throw new IllegalStateException("refreshAfterWrite requires a CacheLoader");
+        }
+
+        return new BoundedLocalCache<K1, V1>(this, null);
+    }
+
+    public <K1 extends K, V1 extends V> LoadingCache<K1, V1> build(CacheLoader<K1, V1> loader) {
+        if (loader == null) {
+            throw new NullPointerException("loader");
+        }
+
+        return new BoundedLocalCache<>(this, loader);
+    }
+
+    /**
+     * a cache whose entries evicted by size move to the off-heap store, and move back on access
+     *
+     * @param store
+     * @return
+     */
+    public <K1 extends K, V1 extends V> TieredCache<K1, V1> buildTiered(OffHeapStore<K1, V1> store) {
+        if (refreshAfterWriteNanos > 0) {
+            throw new IllegalStateException("refreshAfterWrite requires a CacheLoader");
+        }
+
+        return new TieredCache<>(this, store);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K1 extends K, V1 extends V> CacheBuilder<K1, V1> self() {
+        return (CacheBuilder<K1, V1>) this;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getInitialCapacity() {
+        return initialCapacity;
+    }
+
+    long getMaximum() {
+        return maximum;
+    }
+
+    boolean isWeighted() {
+        return weigher != null;
+    }
+
+    Weigher<? super K, ? super V> getWeigher() {
+        return weigher;
+    }
+
+    Expiry<? super K, ? super V> getExpiry() {
+        return expiry;
+    }
+
+    RemovalListener<? super K, ? super V> getRemovalListener() {
+        return removalListener;
+    }
+
+    RemovalListener<? super K, ? super V> getEvictionListener() {
+        return evictionListener;
+    }
+
+    Executor getExecutor() {
+        return executor != null ? executor : ThreadPool.getInstance().getExecutor();
+    }
+
+    boolean isRecordingStats() {
+        return recordStats;
+    }
+
+    int getHotKeys() {
+        return hotKeys;
+    }
+
+    Weigher<? super K, ? super V> getMemoryWeigher() {
+        return memoryWeigher;
+    }
+
+    long getRefreshAfterWriteNanos() {
+        return refreshAfterWriteNanos;
+    }
+}
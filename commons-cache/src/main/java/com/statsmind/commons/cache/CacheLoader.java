@@ -0,0 +1,48 @@
+package com.statsmind.commons.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the values of a {@link LoadingCache}.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+@FunctionalInterface
+public interface CacheLoader<K, V> {
+    /**
+     * @param key
+     * @return the value, or null if there is none
+     */
+    V load(K key);
+
+    /**
+     * load several keys at once, override when the source supports bulk reads
+     *
+     * @param keys
+     * @return the values found, keys without value are left out
+     */
+    default Map<K, V> loadAll(Set<? extends K> keys) {
+        Map<K, V> values = new HashMap<>(keys.size() * 2);
+        for (K key : keys) {
+            V value = load(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * compute a new value for an entry due for refresh, see {@link CacheBuilder#refreshAfterWrite}
+     *
+     * @param key
+     * @param oldValue
+     * @return the new value, or null to remove the entry
+     */
+    default V reload(K key, V oldValue) {
+        return load(key);
+    }
+}
@@ -0,0 +1,113 @@
+package com.statsmind.commons.cache;
+
+import com.statsmind.commons.metrics.LatencyHistogram;
+import com.statsmind.commons.metrics.MetricsRegistry;
+import com.statsmind.commons.metrics.MetricsSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Live metrics of a {@link Cache} built with {@link CacheBuilder#recordStats()}, see {@link Cache#metrics()}.
+ * <p>
+ * Usage:
+ * <pre>
+ * Cache&lt;Long, User&gt; users = CacheBuilder.newBuilder()
+ *     .name("users")
+ *     .maximumSize(10_000)
+ *     .recordHotKeys(20)
+ *     .build();
+ * users.metrics().bindTo(new JmxMetricsRegistry());
+ * </pre>
+ * <p>
+ * Besides {@link CacheStats}, it holds the histogram of load times, the number of evictions by cause, an
+ * estimate of the memory used, and with {@link CacheBuilder#recordHotKeys(int)} the most accessed keys.
+ * Memory is estimated from a sample of the entries, with the size given by
+ * {@link CacheBuilder#memoryWeigher(Weigher)} plus the overhead of the cache per entry.
+ *
+ * @param <K> type of the key
+ */
+public class CacheMetrics<K> implements MetricsSource {
+    private final String name;
+    private final StatsCounter stats;
+    private final HotKeySketch<K> hotKeys;
+    private final LongSupplier size;
+    private final LongSupplier estimatedMemory;
+
+    CacheMetrics(String name, StatsCounter stats, HotKeySketch<K> hotKeys, LongSupplier size,
+                 LongSupplier estimatedMemory) {
+        this.name = name;
+        this.stats = stats;
+        this.hotKeys = hotKeys;
+        this.size = size;
+        this.estimatedMemory = estimatedMemory;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CacheStats getStats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * @return durations of the successful and failed loads, in nanoseconds
+     */
+    public LatencyHistogram getLoadLatency() {
+        return stats.loadLatency();
+    }
+
+    /**
+     * @param cause {@link RemovalCause#SIZE} or {@link RemovalCause#EXPIRED}
+     * @return
+     */
+    public long getEvictionCount(RemovalCause cause) {
+        return stats.evictionCount(cause);
+    }
+
+    /**
+     * @return estimated bytes used by the entries
+     */
+    public long getEstimatedMemory() {
+        return estimatedMemory.getAsLong();
+    }
+
+    /**
+     * @return the most accessed keys with their estimated number of recent accesses, hottest first; empty
+     * unless built with {@link CacheBuilder#recordHotKeys(int)}
+     */
+    public List<Map.Entry<K, Long>> getHotKeys() {
+        return hotKeys == null ? List.of() : hotKeys.getHotKeys();
+    }
+
+    /**
+     * publish the metrics tagged with the name of the cache, hot keys are only available from
+     * {@link #getHotKeys()}
+     * <p>
+     * The meters read the cache through lambdas which only the registry references, so it must hold them
+     * strongly, as {@link com.statsmind.commons.metrics.MicrometerMetricsRegistry} does; the cache then stays
+     * reachable for as long as the registry.
+     *
+     * @param registry
+     */
+    @Override
+    public void bindTo(MetricsRegistry registry) {
+        registry.counter("cache.hits", () -> getStats().getHitCount(), "cache", name);
+        registry.counter("cache.misses", () -> getStats().getMissCount(), "cache", name);
+        registry.gauge("cache.hit.ratio", () -> getStats().getHitRate(), "cache", name);
+        registry.counter("cache.loads.failed", () -> getStats().getLoadFailureCount(), "cache", name);
+        registry.timer("cache.load", getLoadLatency(), "cache", name);
+
+        for (RemovalCause cause : RemovalCause.values()) {
+            if (cause.wasEvicted()) {
+                registry.counter("cache.evictions", () -> getEvictionCount(cause),
+                    "cache", name, "cause", cause.name().toLowerCase());
+            }
+        }
+
+        registry.gauge("cache.size", size::getAsLong, "cache", name);
+        registry.gauge("cache.memory", this::getEstimatedMemory, "cache", name);
+    }
+}
@@ -0,0 +1,39 @@
+package com.statsmind.commons.cache;
+
+/**
+ * Time to live of each entry, in nanoseconds; Long.MAX_VALUE means the entry does not expire.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public interface Expiry<K, V> {
+    /**
+     * @param key
+     * @param value
+     * @param currentTime System.nanoTime()
+     * @return time to live of a new entry
+     */
+    long expireAfterCreate(K key, V value, long currentTime);
+
+    /**
+     * @param key
+     * @param value           the new value
+     * @param currentTime     System.nanoTime()
+     * @param currentDuration time the entry had left to live
+     * @return time to live after the value has been replaced
+     */
+    default long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+        return expireAfterCreate(key, value, currentTime);
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @param currentTime     System.nanoTime()
+     * @param currentDuration time the entry has left to live
+     * @return time to live after the entry has been read
+     */
+    default long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+}
@@ -0,0 +1,165 @@
+package com.statsmind.commons.cache;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The most accessed keys of a cache, at a fixed memory cost.
+ * <p>
+ * A count-min sketch of 4 rows of int counters estimates the frequency of every key, the heavy hitters
+ * are the k keys with the highest estimates seen so far. Once the number of recordings reaches ten times the
+ * width, every counter is halved, so the hot keys follow recent history.
+ * <p>
+ * Recording costs a few atomic increments, a lock and a scan of the heavy hitters, so it is not meant for a
+ * read path: {@link BoundedLocalCache} records the reads it drains from its read buffer during maintenance,
+ * one thread at a time. The lock only guards the heavy hitters against {@link #getHotKeys()}.
+ *
+ * @param <K> type of the key
+ */
+public final class HotKeySketch<K> {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private final AtomicIntegerArray table;
+    private final int widthMask;
+    private final int width;
+    private final int capacity;
+    private final long sampleSize;
+    private final AtomicLong recorded = new AtomicLong();
+
+    /**
+     * guarded by lock
+     */
+    private final Map<K, Long> heavyHitters;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param capacity number of hot keys to track
+     * @param width    counters per row, rounded up to a power of two; the error on a frequency is about the
+     *                 number of recordings divided by the width
+     */
+    public HotKeySketch(int capacity, int width) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        int length = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+        this.width = length;
+        this.widthMask = length - 1;
+        this.table = new AtomicIntegerArray(SEEDS.length * length);
+        this.capacity = capacity;
+        this.sampleSize = 10L * length;
+        this.heavyHitters = new HashMap<>(capacity * 2);
+    }
+
+    public void record(K key) {
+        int hash = spread(key.hashCode());
+        int estimate = Integer.MAX_VALUE;
+
+        for (int i = 0; i < SEEDS.length; ++i) {
+            estimate = Math.min(estimate, table.incrementAndGet(i * width + indexOf(hash, i)));
+        }
+
+        recorded.incrementAndGet();
+
+        lock.lock();
+        try {
+            if (recorded.get() >= sampleSize) {
+                reset();
+                estimate = (int) frequency(key);
+            }
+
+            offer(key, estimate);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void offer(K key, long estimate) {
+        if (heavyHitters.containsKey(key) || heavyHitters.size() < capacity) {
+            heavyHitters.put(key, estimate);
+            return;
+        }
+
+        K coldest = null;
+        long coldestCount = Long.MAX_VALUE;
+        for (Map.Entry<K, Long> entry : heavyHitters.entrySet()) {
+            if (entry.getValue() < coldestCount) {
+                coldest = entry.getKey();
+                coldestCount = entry.getValue();
+            }
+        }
+
+        if (estimate > coldestCount) {
+            heavyHitters.remove(coldest);
+            heavyHitters.put(key, estimate);
+        }
+    }
+
+    /**
+     * halve every counter and heavy hitter count
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); ++i) {
+            int count;
+            do {
+                count = table.get(i);
+            } while (!table.compareAndSet(i, count, count >>> 1));
+        }
+
+        heavyHitters.replaceAll((key, count) -> count >>> 1);
+        recorded.set(sampleSize >>> 1);
+    }
+
+    /**
+     * @param key
+     * @return estimated number of recent accesses, never below the actual number
+     */
+    public long frequency(K key) {
+        int hash = spread(key.hashCode());
+        int estimate = Integer.MAX_VALUE;
+
+        for (int i = 0; i < SEEDS.length; ++i) {
+            estimate = Math.min(estimate, table.get(i * width + indexOf(hash, i)));
+        }
+
+        return estimate;
+    }
+
+    /**
+     * @return the hot keys with their estimated number of recent accesses, hottest first
+     */
+    public List<Map.Entry<K, Long>> getHotKeys() {
+        List<Map.Entry<K, Long>> hotKeys = new ArrayList<>(capacity);
+
+        lock.lock();
+        try {
+            for (Map.Entry<K, Long> entry : heavyHitters.entrySet()) {
+                hotKeys.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        hotKeys.sort(Map.Entry.<K, Long>comparingByValue().reversed());
+        return hotKeys;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & widthMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,19 @@
+package com.statsmind.commons.cache;
+
+/**
+ * Carries invalidations of local caches between the nodes which cache the same data.
+ * <p>
+ * An invalidation names a region, e.g. a cache or an entity type, and a key within it, or null for the whole
+ * region. The publishing node invalidates its own caches itself, listeners only hear about invalidations
+ * published by the other nodes. Delivery is asynchronous, so a node may serve a stale entry for a while after
+ * another node has written it; every implementation documents how long that staleness is bounded by.
+ */
+public interface InvalidationBus {
+    /**
+     * @param region
+     * @param key    null for the whole region
+     */
+    void publish(String region, String key);
+
+    void subscribe(InvalidationListener listener);
+}
@@ -0,0 +1,13 @@
+package com.statsmind.commons.cache;
+
+/**
+ * Notified of the invalidations published by other nodes on an {@link InvalidationBus}.
+ */
+@FunctionalInterface
+public interface InvalidationListener {
+    /**
+     * @param region the region of the invalidation
+     * @param key    the invalidated key, null for the whole region
+     */
+    void onInvalidation(String region, String key);
+}
@@ -0,0 +1,32 @@
+package com.statsmind.commons.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link Cache} which loads absent values with its {@link CacheLoader}.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public interface LoadingCache<K, V> extends Cache<K, V> {
+    /**
+     * @param key
+     * @return the value, loaded if absent; null if the loader returned null
+     */
+    V get(K key);
+
+    /**
+     * @param keys
+     * @return the values, the absent ones loaded together with {@link CacheLoader#loadAll}
+     */
+    Map<K, V> getAll(Iterable<? extends K> keys);
+
+    /**
+     * reload the value in the background, the current value is served until the new one is loaded
+     *
+     * @param key
+     * @return the new value
+     */
+    CompletableFuture<V> refresh(K key);
+}
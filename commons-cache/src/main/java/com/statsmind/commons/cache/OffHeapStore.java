@@ -0,0 +1,565 @@
+package com.statsmind.commons.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Serialized entries in fixed-size slabs outside of the java heap, only the index stays on heap.
+ * <p>
+ * Usage:
+ * <pre>
+ * OffHeapStore&lt;String, RestResponse&gt; store = OffHeapStore.mapped(Paths.get("/var/cache/responses"),
+ *     Serializer.utf8(), Serializer.jdk(), 64 &lt;&lt; 20, 16);
+ * TieredCache&lt;String, RestResponse&gt; cache = CacheBuilder.newBuilder().maximumSize(10_000).buildTiered(store);
+ * </pre>
+ * <p>
+ * Records are appended to the active slab; when it is full the next slab is reused and the entries still in it
+ * are dropped, so the store evicts in slab-sized FIFO steps and never fragments. Overwritten and removed
+ * records are marked dead in place.
+ * <p>
+ * Slabs are direct ByteBuffers, or memory-mapped files with {@link #mapped}: the index is then rebuilt from the
+ * files on start, so a restarted process starts warm; the scan of a slab stops at the first record whose CRC32C
+ * does not match, e.g. one torn by a crash, and keys which no longer deserialize are skipped. Writes are
+ * serialized, reads do not lock unless they race with the reuse of their slab.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public class OffHeapStore<K, V> implements Closeable {
+    /**
+     * second version of the format, the records of the first one have no checksum
+     */
+    private static final int MAGIC = 0x534d4332;
+    /**
+     * magic, write position, sequence
+     */
+    private static final int SLAB_HEADER = 16;
+    /**
+     * key length, value length, expiresAt (epoch millis, 0 when dead), checksum
+     */
+    private static final int RECORD_HEADER = 20;
+    private static final long NEVER = Long.MAX_VALUE;
+    private static final long DEAD = 0;
+
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final Slab[] slabs;
+    private final int slabSize;
+    private final ConcurrentHashMap<K, Location> index = new ConcurrentHashMap<>();
+    private final LongAdder evictionCount = new LongAdder();
+    private volatile long expireAfterWriteMillis = NEVER;
+
+    /**
+     * guarded by this
+     */
+    private int active;
+    private long sequence;
+
+    private OffHeapStore(Serializer<K> keySerializer, Serializer<V> valueSerializer, ByteBuffer[] buffers) {
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.slabSize = buffers[0].capacity();
+        this.slabs = new Slab[buffers.length];
+        for (int i = 0; i < buffers.length; ++i) {
+            this.slabs[i] = new Slab(i, buffers[i]);
+        }
+    }
+
+    /**
+     * @param keySerializer
+     * @param valueSerializer
+     * @param slabSize        bytes per slab, the largest entry must fit in a slab
+     * @param slabCount       at least 2
+     * @return a store in direct memory, lost on restart
+     */
+    public static <K, V> OffHeapStore<K, V> allocateDirect(Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                                                           int slabSize, int slabCount) {
+        checkSize(slabSize, slabCount);
+
+        ByteBuffer[] buffers = new ByteBuffer[slabCount];
+        for (int i = 0; i < slabCount; ++i) {
+            buffers[i] = ByteBuffer.allocateDirect(slabSize);
+        }
+
+        OffHeapStore<K, V> store = new OffHeapStore<>(keySerializer, valueSerializer, buffers);
+        store.recover();
+        return store;
+    }
+
+    /**
+     * @param directory       holds one file per slab, created if needed
+     * @param keySerializer
+     * @param valueSerializer
+     * @param slabSize        bytes per slab, must not change between restarts
+     * @param slabCount       at least 2
+     * @return a store in memory-mapped files, reloaded from them if they exist
+     */
+    public static <K, V> OffHeapStore<K, V> mapped(Path directory, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                                                   int slabSize, int slabCount) {
+        checkSize(slabSize, slabCount);
+
+        ByteBuffer[] buffers = new ByteBuffer[slabCount];
+        try {
+            Files.createDirectories(directory);
+            for (int i = 0; i < slabCount; ++i) {
+                try (FileChannel channel = FileChannel.open(directory.resolve("slab-" + i + ".dat"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    // the mapping stays valid after the channel is closed
+                    buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, 0, slabSize);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        OffHeapStore<K, V> store = new OffHeapStore<>(keySerializer, valueSerializer, buffers);
+        store.recover();
+        return store;
+    }
+
+    private static void checkSize(int slabSize, int slabCount) {
+        if (slabSize <= SLAB_HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("slabSize too small: " + slabSize);
+        }
+        if (slabCount < 2) {
+            throw new IllegalArgumentException("at least 2 slabs are needed");
+        }
+    }
+
+    /**
+     * @param expireAfterWrite time to live of the entries put without ttl
+     * @param unit
+     * @return
+     */
+    public OffHeapStore<K, V> expireAfterWrite(long expireAfterWrite, TimeUnit unit) {
+        this.expireAfterWriteMillis = unit.toMillis(expireAfterWrite);
+        return this;
+    }
+
+    public V get(K key) {
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+
+        if (location.expiresAt <= System.currentTimeMillis()) {
+            remove(key, location);
+            return null;
+        }
+
+        byte[] bytes = read(location);
+        if (bytes == null) {
+            // its slab has been reused meanwhile
+            index.remove(key, location);
+            return null;
+        }
+
+        return valueSerializer.deserialize(bytes);
+    }
+
+    /**
+     * remove the entry, see {@link TieredCache}
+     *
+     * @return the value with its expiry, null if not in the store, expired, or removed or replaced meanwhile
+     */
+    Stored<V> take(K key) {
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+
+        if (location.expiresAt <= System.currentTimeMillis()) {
+            remove(key, location);
+            return null;
+        }
+
+        byte[] bytes = read(location);
+        if (bytes == null) {
+            index.remove(key, location);
+            return null;
+        }
+
+        if (!index.remove(key, location)) {
+            return null;
+        }
+        synchronized (this) {
+            markDead(location);
+        }
+
+        return new Stored<>(valueSerializer.deserialize(bytes), location.expiresAt);
+    }
+
+    public boolean containsKey(K key) {
+        Location location = index.get(key);
+        return location != null && location.expiresAt > System.currentTimeMillis();
+    }
+
+    /**
+     * @return false if the entry is larger than a slab and was not stored
+     */
+    public boolean put(K key, V value) {
+        long ttl = expireAfterWriteMillis;
+        return put(key, value, ttl, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return false if the entry is larger than a slab and was not stored
+     */
+    public boolean put(K key, V value, long ttl, TimeUnit unit) {
+        byte[] keyBytes = keySerializer.serialize(key);
+        byte[] valueBytes = valueSerializer.serialize(value);
+        int length = RECORD_HEADER + keyBytes.length + valueBytes.length;
+
+        if (length > slabSize - SLAB_HEADER) {
+            remove(key);
+            return false;
+        }
+
+        long ttlMillis = unit.toMillis(ttl);
+        long now = System.currentTimeMillis();
+        long expiresAt = ttlMillis >= NEVER - now ? NEVER : now + Math.max(1, ttlMillis);
+
+        synchronized (this) {
+            Slab slab = slabs[active];
+            if (slab.writePosition + length > slabSize) {
+                active = (active + 1) % slabs.length;
+                slab = slabs[active];
+                recycle(slab);
+            }
+
+            int offset = slab.writePosition;
+            ByteBuffer buffer = slab.buffer;
+            buffer.putInt(offset, keyBytes.length);
+            buffer.putInt(offset + 4, valueBytes.length);
+            buffer.putLong(offset + 8, expiresAt);
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset + RECORD_HEADER);
+            target.put(keyBytes);
+            target.put(valueBytes);
+            buffer.putInt(offset + 16, checksum(buffer, offset, length));
+
+            slab.writePosition = offset + length;
+            buffer.putInt(4, slab.writePosition);
+
+            Location previous = index.put(key, new Location(slab.id, slab.epoch, offset,
+                offset + RECORD_HEADER + keyBytes.length, valueBytes.length, expiresAt));
+            if (previous != null) {
+                markDead(previous);
+            }
+        }
+
+        return true;
+    }
+
+    public void remove(K key) {
+        Location location = index.remove(key);
+        if (location != null) {
+            synchronized (this) {
+                markDead(location);
+            }
+        }
+    }
+
+    private void remove(K key, Location location) {
+        if (index.remove(key, location)) {
+            synchronized (this) {
+                markDead(location);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (Slab slab : slabs) {
+            recycle(slab);
+        }
+        index.clear();
+        active = 0;
+    }
+
+    /**
+     * @return number of entries, including the expired ones not yet accessed
+     */
+    public long size() {
+        return index.mappingCount();
+    }
+
+    /**
+     * @return number of entries dropped because their slab was reused
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * write the memory-mapped slabs to disk
+     */
+    public synchronized void force() {
+        for (Slab slab : slabs) {
+            if (slab.buffer instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) slab.buffer).force();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    /**
+     * @return the value bytes, or null if the slab has been reused since the location was indexed
+     */
+    private byte[] read(Location location) {
+        Slab slab = slabs[location.slab];
+        byte[] bytes = new byte[location.valueLength];
+
+        long stamp = slab.lock.tryOptimisticRead();
+        if (slab.epoch == location.epoch) {
+            copy(slab, location, bytes);
+        }
+        if (slab.lock.validate(stamp)) {
+            return slab.epoch == location.epoch ? bytes : null;
+        }
+
+        stamp = slab.lock.readLock();
+        try {
+            if (slab.epoch != location.epoch) {
+                return null;
+            }
+            copy(slab, location, bytes);
+            return bytes;
+        } finally {
+            slab.lock.unlockRead(stamp);
+        }
+    }
+
+    private static void copy(Slab slab, Location location, byte[] bytes) {
+        ByteBuffer source = slab.buffer.duplicate();
+        source.position(location.valueOffset);
+        source.get(bytes);
+    }
+
+    /**
+     * called under the lock of the store
+     */
+    private void markDead(Location location) {
+        Slab slab = slabs[location.slab];
+        if (slab.epoch == location.epoch) {
+            slab.buffer.putLong(location.offset + 8, DEAD);
+        }
+    }
+
+    /**
+     * drop the entries of the slab and make it the active one, called under the lock of the store
+     */
+    private void recycle(Slab slab) {
+        long stamp = slab.lock.writeLock();
+        try {
+            long now = System.currentTimeMillis();
+            forEachRecord(slab, false, (key, offset, valueOffset, valueLength, expiresAt) -> {
+                if (expiresAt == DEAD) {
+                    return;
+                }
+
+                Location location = index.get(key);
+                if (location != null && location.slab == slab.id && location.offset == offset && index.remove(key, location)
+                    && expiresAt > now) {
+                    evictionCount.increment();
+                }
+            });
+
+            slab.epoch++;
+            slab.writePosition = SLAB_HEADER;
+            slab.sequence = ++sequence;
+            writeHeader(slab);
+        } finally {
+            slab.lock.unlockWrite(stamp);
+        }
+    }
+
+    private static void writeHeader(Slab slab) {
+        slab.buffer.putInt(0, MAGIC);
+        slab.buffer.putInt(4, slab.writePosition);
+        slab.buffer.putLong(8, slab.sequence);
+    }
+
+    /**
+     * rebuild the index from the slabs, oldest first so that newer records win
+     */
+    private synchronized void recover() {
+        Slab[] ordered = slabs.clone();
+
+        for (Slab slab : slabs) {
+            ByteBuffer buffer = slab.buffer;
+            int writePosition = buffer.getInt(4);
+
+            if (buffer.getInt(0) != MAGIC || writePosition < SLAB_HEADER || writePosition > slabSize) {
+                slab.writePosition = SLAB_HEADER;
+                slab.sequence = 0;
+                writeHeader(slab);
+            } else {
+                slab.writePosition = writePosition;
+                slab.sequence = buffer.getLong(8);
+            }
+        }
+
+        Arrays.sort(ordered, Comparator.comparingLong(slab -> slab.sequence));
+        long now = System.currentTimeMillis();
+
+        for (Slab slab : ordered) {
+            forEachRecord(slab, true, (key, offset, valueOffset, valueLength, expiresAt) -> {
+                if (expiresAt == DEAD || expiresAt <= now) {
+                    index.remove(key);
+                    return;
+                }
+
+                Location previous = index.put(key, new Location(slab.id, slab.epoch, offset, valueOffset, valueLength, expiresAt));
+                if (previous != null) {
+                    markDead(previous);
+                }
+            });
+
+            sequence = Math.max(sequence, slab.sequence);
+        }
+
+        Slab newest = ordered[ordered.length - 1];
+        active = newest.id;
+        if (newest.sequence == 0) {
+            newest.sequence = ++sequence;
+            writeHeader(newest);
+        }
+    }
+
+    /**
+     * @param verify check the checksums of the records, which were written by a previous process
+     */
+    private void forEachRecord(Slab slab, boolean verify, RecordVisitor<K> visitor) {
+        ByteBuffer buffer = slab.buffer;
+        int offset = SLAB_HEADER;
+
+        while (offset + RECORD_HEADER <= slab.writePosition) {
+            int keyLength = buffer.getInt(offset);
+            int valueLength = buffer.getInt(offset + 4);
+            long expiresAt = buffer.getLong(offset + 8);
+            int length = RECORD_HEADER + keyLength + valueLength;
+
+            if (keyLength <= 0 || valueLength < 0 || length <= 0 || offset + length > slab.writePosition
+                || verify && buffer.getInt(offset + 16) != checksum(buffer, offset, length)) {
+                // torn write
+                slab.writePosition = offset;
+                return;
+            }
+
+            byte[] keyBytes = new byte[keyLength];
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset + RECORD_HEADER);
+            source.get(keyBytes);
+
+            K key;
+            try {
+                key = keySerializer.deserialize(keyBytes);
+            } catch (RuntimeException e) {
+                // e.g. written by another version of the key class, never indexed
+                offset += length;
+                continue;
+            }
+
+            visitor.visit(key, offset, offset + RECORD_HEADER + keyLength, valueLength, expiresAt);
+            offset += length;
+        }
+    }
+
+    /**
+     * @return CRC32C of the lengths, key and value of the record, not of its expiry which is updated in place
+     */
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer source = buffer.duplicate();
+        source.limit(offset + 8).position(offset);
+        crc.update(source);
+        source.limit(offset + length).position(offset + RECORD_HEADER);
+        crc.update(source);
+        return (int) crc.getValue();
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor<K> {
+        void visit(K key, int offset, int valueOffset, int valueLength, long expiresAt);
+    }
+
+    private static final class Slab {
+        private final int id;
+        private final ByteBuffer buffer;
+        private final StampedLock lock = new StampedLock();
+        /**
+         * incremented each time the slab is reused, locations of a previous epoch are stale
+         */
+        private volatile int epoch;
+        /**
+         * guarded by the lock of the store
+         */
+        private int writePosition;
+        private long sequence;
+
+        Slab(int id, ByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+    }
+
+    static final class Stored<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Stored(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        V getValue() {
+            return value;
+        }
+
+        /**
+         * @return nanoseconds before the entry expires, -1 if it never does, 0 if it has expired
+         */
+        long remainingNanos() {
+            if (expiresAt == NEVER) {
+                return -1;
+            }
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, expiresAt - System.currentTimeMillis()));
+        }
+    }
+
+    private static final class Location {
+        private final int slab;
+        private final int epoch;
+        private final int offset;
+        private final int valueOffset;
+        private final int valueLength;
+        private final long expiresAt;
+
+        Location(int slab, int epoch, int offset, int valueOffset, int valueLength, long expiresAt) {
+            this.slab = slab;
+            this.epoch = epoch;
+            this.offset = offset;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
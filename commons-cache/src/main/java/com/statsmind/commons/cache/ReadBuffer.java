@@ -0,0 +1,88 @@
+package com.statsmind.commons.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lossy buffer of the reads to replay on the eviction policy.
+ * <p>
+ * Threads are spread over striped ring buffers; a read is dropped when its stripe is full or contended,
+ * which only makes the policy slightly less accurate. Offering does not lock nor allocate, draining is done
+ * by one thread at a time, under the eviction lock.
+ *
+ * @param <E> type of the element
+ */
+final class ReadBuffer<E> {
+    static final int SUCCESS = 0;
+    static final int FULL = 1;
+    static final int FAILED = 2;
+
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    /**
+     * counters of different stripes are 8 longs apart, not to share a cache line
+     */
+    private static final int PAD = 8;
+
+    private final int stripeMask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray readCounters;
+    private final AtomicLongArray writeCounters;
+
+    ReadBuffer() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+
+        this.stripeMask = stripes - 1;
+        this.buffer = new AtomicReferenceArray<>(stripes * BUFFER_SIZE);
+        this.readCounters = new AtomicLongArray(stripes * PAD);
+        this.writeCounters = new AtomicLongArray(stripes * PAD);
+    }
+
+    /**
+     * @param e
+     * @return {@link #SUCCESS}, {@link #FULL} if the stripe should be drained or {@link #FAILED} if contended
+     */
+    int offer(E e) {
+        int stripe = stripe();
+        long head = readCounters.get(stripe * PAD);
+        long tail = writeCounters.get(stripe * PAD);
+
+        if (tail - head >= BUFFER_SIZE) {
+            return FULL;
+        }
+
+        if (writeCounters.compareAndSet(stripe * PAD, tail, tail + 1)) {
+            buffer.lazySet(stripe * BUFFER_SIZE + (int) (tail & BUFFER_MASK), e);
+            return SUCCESS;
+        }
+
+        return FAILED;
+    }
+
+    void drainTo(Consumer<E> consumer) {
+        for (int stripe = 0; stripe <= stripeMask; ++stripe) {
+            long head = readCounters.get(stripe * PAD);
+            long tail = writeCounters.get(stripe * PAD);
+
+            for (; head < tail; ++head) {
+                int index = stripe * BUFFER_SIZE + (int) (head & BUFFER_MASK);
+                E e = buffer.get(index);
+                if (e == null) {
+                    // the writer has claimed the slot but not filled it yet
+                    break;
+                }
+
+                buffer.lazySet(index, null);
+                consumer.accept(e);
+            }
+
+            readCounters.lazySet(stripe * PAD, head);
+        }
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9e3779b97f4a7c15L) >>> 40) & stripeMask;
+    }
+}
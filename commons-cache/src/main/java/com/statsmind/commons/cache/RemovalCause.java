@@ -0,0 +1,27 @@
+package com.statsmind.commons.cache;
+
+public enum RemovalCause {
+    /**
+     * removed by invalidate
+     */
+    EXPLICIT,
+    /**
+     * value replaced by put or refresh
+     */
+    REPLACED,
+    /**
+     * time to live elapsed
+     */
+    EXPIRED,
+    /**
+     * evicted because the cache exceeded its maximum size or weight
+     */
+    SIZE;
+
+    /**
+     * @return true if the entry was removed by the cache itself
+     */
+    public boolean wasEvicted() {
+        return this == EXPIRED || this == SIZE;
+    }
+}
@@ -0,0 +1,12 @@
+package com.statsmind.commons.cache;
+
+/**
+ * Notified of every removed or replaced entry, asynchronously on the executor of the cache.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+    void onRemoval(K key, V value, RemovalCause cause);
+}
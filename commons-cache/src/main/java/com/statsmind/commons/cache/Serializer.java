@@ -0,0 +1,35 @@
+package com.statsmind.commons.cache;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts keys and values to bytes for the {@link OffHeapStore}. Implementations must be thread-safe.
+ *
+ * @param <T> type of the serialized object
+ */
+public interface Serializer<T> {
+    byte[] serialize(T value);
+
+    T deserialize(byte[] bytes);
+
+    /**
+     * @return java serialization, the objects must be Serializable
+     */
+    static <T> Serializer<T> jdk() {
+        return new JdkSerializer<>();
+    }
+
+    static Serializer<String> utf8() {
+        return new Serializer<String>() {
+            @Override
+            public byte[] serialize(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
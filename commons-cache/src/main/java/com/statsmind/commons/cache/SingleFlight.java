@@ -0,0 +1,100 @@
+package com.statsmind.commons.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Coalesces concurrent calls for the same key into one: the first caller runs the loader, the others wait
+ * for its result or its exception. Nothing is kept once the call completes.
+ * <p>
+ * Unlike {@link Cache#get(Object, java.util.function.Function)}, the loader does not run under a lock of
+ * the cache, so it may use the cache itself and slow loads do not block other keys.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the result
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param key
+     * @param loader
+     * @return the result of the loader, run by this thread or by the one which started the call
+     * @throws Exception thrown by the loader
+     */
+    public V execute(K key, Callable<? extends V> loader) throws Exception {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> existing = calls.putIfAbsent(key, call);
+
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            V value = loader.call();
+            call.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    /**
+     * run the loader on the executor unless a call for the key is in flight
+     *
+     * @param key
+     * @param loader
+     * @param executor
+     * @return the call in flight for the key
+     */
+    public CompletableFuture<V> executeAsync(K key, Callable<? extends V> loader, Executor executor) {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> existing = calls.putIfAbsent(key, call);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    call.complete(loader.call());
+                } catch (Throwable throwable) {
+                    call.completeExceptionally(throwable);
+                } finally {
+                    calls.remove(key, call);
+                }
+            });
+        } catch (RuntimeException e) {
+            calls.remove(key, call);
+            call.completeExceptionally(e);
+        }
+
+        return call;
+    }
+
+    public boolean isInFlight(K key) {
+        return calls.containsKey(key);
+    }
+
+    private static <V> V await(CompletableFuture<V> call) throws Exception {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
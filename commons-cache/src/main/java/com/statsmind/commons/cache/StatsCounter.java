@@ -0,0 +1,65 @@
+package com.statsmind.commons.cache;
+
+import com.statsmind.commons.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters behind {@link CacheStats}, recording does not allocate.
+ */
+final class StatsCounter {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final LongAdder[] evictionsByCause = new LongAdder[RemovalCause.values().length];
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    StatsCounter() {
+        for (int i = 0; i < evictionsByCause.length; ++i) {
+            evictionsByCause[i] = new LongAdder();
+        }
+    }
+
+    void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    void recordLoadSuccess(long loadTime) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTime);
+        loadLatency.record(loadTime);
+    }
+
+    void recordLoadFailure(long loadTime) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTime);
+        loadLatency.record(loadTime);
+    }
+
+    void recordEviction(int weight, RemovalCause cause) {
+        evictionCount.increment();
+        evictionWeight.add(weight);
+        evictionsByCause[cause.ordinal()].increment();
+    }
+
+    long evictionCount(RemovalCause cause) {
+        return evictionsByCause[cause.ordinal()].sum();
+    }
+
+    LatencyHistogram loadLatency() {
+        return loadLatency;
+    }
+
+    CacheStats snapshot() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(), loadFailureCount.sum(),
+            totalLoadTime.sum(), evictionCount.sum(), evictionWeight.sum());
+    }
+}
@@ -0,0 +1,217 @@
+package com.statsmind.commons.cache;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * A {@link Cache} on heap backed by an {@link OffHeapStore}, built with {@link CacheBuilder#buildTiered}.
+ * <p>
+ * Entries evicted from the heap by size are demoted to the store; an entry found in the store is promoted back
+ * to the heap and removed from the store, so each entry lives in one tier. Writes and invalidations go to the
+ * heap and drop the copy in the store. {@link #close()} demotes every entry left on heap, so that a
+ * {@link OffHeapStore#mapped} store starts warm after a restart.
+ * <p>
+ * An entry keeps its expiry as it moves between the tiers: it is demoted with the time it had left on heap
+ * and promoted with the time it had left in the store, so moving does not extend its life. An entry without
+ * expiry on heap takes the expireAfterWrite of the store when demoted.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public class TieredCache<K, V> implements Cache<K, V>, Closeable {
+    private static final int VERSION_STRIPES = 64;
+
+    private final BoundedLocalCache<K, V> heap;
+    private final OffHeapStore<K, V> store;
+    /**
+     * incremented by the invalidations of the keys of each stripe, a promotion racing with one is dropped
+     */
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    /**
+     * invalidations of the keys of each stripe in progress, no entry of the stripe moves between the tiers
+     * during one
+     */
+    private final AtomicIntegerArray invalidating = new AtomicIntegerArray(VERSION_STRIPES);
+
+    TieredCache(CacheBuilder<? super K, ? super V> builder, OffHeapStore<K, V> store) {
+        this.store = store;
+        this.heap = new BoundedLocalCache<>(builder, null, this::demote);
+    }
+
+    /**
+     * called under the lock of the heap bin of the key, which an invalidation takes before it removes the key
+     * from the store
+     */
+    private void demote(K key, V value, long ttlNanos) {
+        if (invalidating.get(stripeOf(key)) != 0) {
+            return;
+        }
+
+        if (ttlNanos < 0) {
+            store.put(key, value);
+        } else {
+            store.put(key, value, ttlNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public OffHeapStore<K, V> getStore() {
+        return store;
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        V value = heap.getIfPresent(key);
+        return value != null ? value : promote(key);
+    }
+
+    @Override
+    public V get(K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = heap.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+
+        value = promote(key);
+        return value != null ? value : heap.get(key, mappingFunction);
+    }
+
+    /**
+     * @return the value moved from the store to the heap, or null if not in the store
+     */
+    private V promote(K key) {
+        int stripe = stripeOf(key);
+        long version = versions.get(stripe);
+        if (invalidating.get(stripe) != 0) {
+            return null;
+        }
+
+        OffHeapStore.Stored<V> stored = store.take(key);
+        if (stored == null) {
+            return null;
+        }
+
+        long ttlNanos = stored.remainingNanos();
+        if (ttlNanos == 0) {
+            return null;
+        }
+
+        // a value put on heap meanwhile is newer than the stored one, and an invalidation since the version
+        // was read makes the stored one stale; the check runs under the lock of the map bin
+        return heap.get(key, k -> versions.get(stripe) == version ? stored.getValue() : null, ttlNanos);
+    }
+
+    private static int stripeOf(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (VERSION_STRIPES - 1);
+    }
+
+    @Override
+    public Map<K, V> getAllPresent(Iterable<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        heap.put(key, value);
+        store.remove(key);
+    }
+
+    @Override
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        heap.put(key, value, ttl, unit);
+        store.remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        map.forEach(this::put);
+    }
+
+    @Override
+    public void invalidate(K key) {
+        // a promotion which read the version before sees it changed; the heap goes before the store, so that
+        // an eviction which demoted the entry before it got the lock of the bin has written it to the store
+        int stripe = stripeOf(key);
+        invalidating.incrementAndGet(stripe);
+        versions.incrementAndGet(stripe);
+        try {
+            heap.invalidate(key);
+            store.remove(key);
+        } finally {
+            invalidating.decrementAndGet(stripe);
+        }
+    }
+
+    @Override
+    public void invalidateAll(Iterable<? extends K> keys) {
+        for (K key : keys) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (int i = 0; i < VERSION_STRIPES; ++i) {
+            invalidating.incrementAndGet(i);
+            versions.incrementAndGet(i);
+        }
+        try {
+            heap.invalidateAll();
+            store.clear();
+        } finally {
+            for (int i = 0; i < VERSION_STRIPES; ++i) {
+                invalidating.decrementAndGet(i);
+            }
+        }
+    }
+
+    /**
+     * @return entries on heap plus entries in the store
+     */
+    @Override
+    public long estimatedSize() {
+        return heap.estimatedSize() + store.size();
+    }
+
+    /**
+     * @return statistics of the heap tier, a promotion counts as a miss
+     */
+    @Override
+    public CacheStats stats() {
+        return heap.stats();
+    }
+
+    /**
+     * @return metrics of the heap tier
+     */
+    @Override
+    public CacheMetrics<K> metrics() {
+        return heap.metrics();
+    }
+
+    @Override
+    public void cleanUp() {
+        heap.cleanUp();
+    }
+
+    /**
+     * demote the entries on heap to the store and write it to disk
+     */
+    @Override
+    public void close() {
+        heap.forEach(this::demote);
+        store.close();
+    }
+}
@@ -0,0 +1,18 @@
+package com.statsmind.commons.cache;
+
+/**
+ * Weight of an entry, for caches bounded by {@link CacheBuilder#maximumWeight}. The weight of an entry is
+ * computed when it is written and does not change afterwards.
+ *
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+    /**
+     * @param key
+     * @param value
+     * @return weight, not negative
+     */
+    int weigh(K key, V value);
+}
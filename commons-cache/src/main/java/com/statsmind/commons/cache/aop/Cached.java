@@ -0,0 +1,38 @@
+package com.statsmind.commons.cache.aop;
+
+import java.lang.annotation.*;
+
+/**
+ * Memoizes the results of a method of a Spring bean, by arguments, see {@link CachedInterceptor}.
+ * <p>
+ * Usage:
+ * <pre>
+ * &#64;Cached(ttl = 600, maxSize = 10_000, refreshAhead = 60)
+ * public RestResponse getReport(Long projectId, String period) {
+ *     ...
+ * }
+ * </pre>
+ * <p>
+ * Concurrent calls with the same arguments which miss the cache run the method once. Null results are cached,
+ * exceptions are not.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Cached {
+    /**
+     * @return time to live of a result in seconds, 0 for no expiration
+     */
+    long ttl() default 60;
+
+    /**
+     * @return maximum number of cached results
+     */
+    long maxSize() default 1_000;
+
+    /**
+     * @return age in seconds after which a result is reloaded in the background on its next call, the stale
+     * result is returned meanwhile; 0 to disable
+     */
+    long refreshAhead() default 0;
+}
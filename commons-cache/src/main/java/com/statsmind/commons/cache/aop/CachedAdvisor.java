@@ -0,0 +1,34 @@
+package com.statsmind.commons.cache.aop;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.support.AbstractPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Role;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies the {@link CachedInterceptor} to the beans with {@link Cached} methods, picked up by the auto-proxy
+ * creator of the application context.
+ */
+@Component
+@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+public class CachedAdvisor extends AbstractPointcutAdvisor {
+    private final Pointcut pointcut = AnnotationMatchingPointcut.forMethodAnnotation(Cached.class);
+    private final CachedInterceptor interceptor = new CachedInterceptor();
+
+    @Override
+    public Pointcut getPointcut() {
+        return pointcut;
+    }
+
+    @Override
+    public Advice getAdvice() {
+        return interceptor;
+    }
+
+    public CachedInterceptor getInterceptor() {
+        return interceptor;
+    }
+}
@@ -0,0 +1,189 @@
+package com.statsmind.commons.cache.aop;
+
+import com.statsmind.commons.cache.Cache;
+import com.statsmind.commons.cache.CacheBuilder;
+import com.statsmind.commons.cache.SingleFlight;
+import com.statsmind.commons.concurrent.ThreadPool;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.cache.interceptor.SimpleKeyGenerator;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the methods annotated with {@link Cached} through a cache per bean and method, keyed on the arguments.
+ * <p>
+ * The method is resolved on the class of the bean, so beans implementing the same interface, and instances of
+ * the same class, each have their own results and settings. Beans are held weakly.
+ * <p>
+ * A miss runs the method through a {@link SingleFlight}, so concurrent misses for the same key make one call.
+ * With refreshAhead, a hit on a result older than it returns the result and reloads it on the
+ * {@link ThreadPool}, at most one reload per key at a time; the reload is skipped while the pool is saturated.
+ */
+public class CachedInterceptor implements MethodInterceptor {
+    private static final Object NO_TARGET = new Object();
+
+    private final Map<Object, BeanCaches> caches =
+        new ConcurrentReferenceHashMap<>(16, ConcurrentReferenceHashMap.ReferenceType.WEAK);
+    private final ThreadPool threadPool;
+
+    public CachedInterceptor() {
+        this(ThreadPool.getInstance());
+    }
+
+    public CachedInterceptor(ThreadPool threadPool) {
+        this.threadPool = threadPool;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object target = invocation.getThis();
+        BeanCaches beanCaches = caches.computeIfAbsent(target == null ? NO_TARGET : target, BeanCaches::new);
+
+        MethodCache cache = beanCaches.get(invocation.getMethod());
+        if (cache == null) {
+            return invocation.proceed();
+        }
+
+        Object key = SimpleKeyGenerator.generateKey(invocation.getArguments());
+        return cache.get(key, invocation);
+    }
+
+    /**
+     * @param bean   the bean or its proxy
+     * @param method a method of the bean, or of an interface it implements
+     * @return the cache of the method of the bean, or null if it has not been called yet
+     */
+    public Cache<Object, ?> getCache(Object bean, Method method) {
+        Object target = AopUtils.isAopProxy(bean) ? AopProxyUtils.getSingletonTarget(bean) : bean;
+        BeanCaches beanCaches = target == null ? null : caches.get(target);
+        if (beanCaches == null) {
+            return null;
+        }
+
+        MethodCache cache = beanCaches.byMethod.get(beanCaches.mostSpecific(method));
+        return cache == null ? null : cache.results;
+    }
+
+    private final class BeanCaches {
+        private final Class<?> targetClass;
+        /**
+         * by the method of the target class
+         */
+        private final Map<Method, MethodCache> byMethod = new ConcurrentHashMap<>();
+        /**
+         * by the invoked method, which may be declared by an interface; empty if not cached
+         */
+        private final Map<Method, Optional<MethodCache>> byInvokedMethod = new ConcurrentHashMap<>();
+
+        BeanCaches(Object target) {
+            this.targetClass = target == NO_TARGET ? null : AopUtils.getTargetClass(target);
+        }
+
+        MethodCache get(Method invoked) {
+            Optional<MethodCache> cache = byInvokedMethod.get(invoked);
+            if (cache == null) {
+                cache = byInvokedMethod.computeIfAbsent(invoked, key -> {
+                    Method method = mostSpecific(key);
+                    Cached cached = AnnotatedElementUtils.findMergedAnnotation(method, Cached.class);
+                    return cached == null ? Optional.empty()
+                        : Optional.of(byMethod.computeIfAbsent(method, m -> new MethodCache(cached, threadPool)));
+                });
+            }
+            return cache.orElse(null);
+        }
+
+        Method mostSpecific(Method method) {
+            return targetClass == null ? method : AopUtils.getMostSpecificMethod(method, targetClass);
+        }
+    }
+
+    private static final class MethodCache {
+        private final Cache<Object, Result> results;
+        private final SingleFlight<Object, Result> flights = new SingleFlight<>();
+        private final long refreshAheadNanos;
+        private final ThreadPool threadPool;
+
+        MethodCache(Cached cached, ThreadPool threadPool) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(cached.maxSize())
+                .recordStats();
+            if (cached.ttl() > 0) {
+                builder.expireAfterWrite(cached.ttl(), TimeUnit.SECONDS);
+            }
+
+            this.results = builder.build();
+            this.refreshAheadNanos = TimeUnit.SECONDS.toNanos(cached.refreshAhead());
+            this.threadPool = threadPool;
+        }
+
+        Object get(Object key, MethodInvocation invocation) throws Exception {
+            Result result = results.getIfPresent(key);
+
+            if (result != null) {
+                if (refreshAheadNanos > 0 && System.nanoTime() - result.loadedAt >= refreshAheadNanos
+                    && !flights.isInFlight(key)) {
+                    // the invocation completes before the reload runs, which needs its own copy
+                    MethodInvocation reload = invocation instanceof ProxyMethodInvocation
+                        ? ((ProxyMethodInvocation) invocation).invocableClone() : invocation;
+                    // skipped when the pool is saturated, the next hit tries again
+                    flights.executeAsync(key, () -> refresh(key, reload), threadPool.getFailFastExecutor());
+                }
+
+                return result.value;
+            }
+
+            return flights.execute(key, () -> load(key, invocation)).value;
+        }
+
+        /**
+         * the stale result is kept when the reload fails, nobody waits for it to report the failure
+         */
+        private Result refresh(Object key, MethodInvocation invocation) throws Exception {
+            try {
+                return load(key, invocation);
+            } catch (Exception | Error e) {
+                e.printStackTrace();
+                throw e;
+            }
+        }
+
+        private Result load(Object key, MethodInvocation invocation) throws Exception {
+            Object value;
+            try {
+                value = invocation.proceed();
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable throwable) {
+                throw new UndeclaredThrowableException(throwable);
+            }
+
+            Result result = new Result(value, System.nanoTime());
+            results.put(key, result);
+            return result;
+        }
+    }
+
+    /**
+     * holds null results as well
+     */
+    private static final class Result {
+        private final Object value;
+        private final long loadedAt;
+
+        Result(Object value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
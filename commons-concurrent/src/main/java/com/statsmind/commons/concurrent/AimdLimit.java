@@ -0,0 +1,60 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase, multiplicative decrease: the limit grows by one for every successful task while the
+ * queue is busy, and is cut by {@link #backoffRatio(double)} whenever a task fails, times out, or takes
+ * longer than {@link #latencyThreshold(long, TimeUnit)}.
+ */
+public class AimdLimit implements ConcurrencyLimit {
+    private final int minLimit;
+    private final int maxLimit;
+    private double backoffRatio = 0.9;
+    private long latencyThresholdNanos = Long.MAX_VALUE;
+    private int limit;
+
+    public AimdLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @param backoffRatio between 0.5 and 1, the limit is multiplied by it on every drop
+     * @return
+     */
+    public synchronized AimdLimit backoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * @param latencyThreshold a task slower than this counts as a drop, even if it succeeds
+     * @param unit
+     * @return
+     */
+    public synchronized AimdLimit latencyThreshold(long latencyThreshold, TimeUnit unit) {
+        this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+        return this;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public synchronized int onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (dropped || rttNanos > latencyThresholdNanos) {
+            limit = Math.max(minLimit, (int) (limit * backoffRatio));
+        } else if (inFlight * 2 >= limit) {
+            /**
+             * only grow while the queue actually uses its limit, an idle queue tells nothing about the downstream
+             */
+            limit = Math.min(maxLimit, limit + 1);
+        }
+
+        return limit;
+    }
+}
@@ -0,0 +1,11 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.List;
+
+public interface BatchInvokeFunc<T, U> {
+    /**
+     * @param params
+     * @return one result per param, in the same order as params
+     */
+    public List<U> accept(List<T> params);
+}
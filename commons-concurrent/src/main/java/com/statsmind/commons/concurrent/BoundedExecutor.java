@@ -0,0 +1,167 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control in front of the executor created by an {@link ExecutorFactory}.
+ * <p>
+ * At most {@code maxPendingTasks} tasks are queued or running at any time, the rest are handled by the
+ * {@link RejectionPolicy}. The underlying executor can be replaced at runtime, tasks already accepted by
+ * the old one still complete there.
+ */
+final class BoundedExecutor extends AbstractExecutorService {
+    private final ResizableSemaphore admission;
+    private final TaskMetrics metrics = new TaskMetrics();
+    private volatile ExecutorService delegate;
+    private volatile RejectionPolicy rejectionPolicy;
+    private volatile long blockTimeoutNanos;
+
+    BoundedExecutor(ExecutorService delegate, int maxPendingTasks, RejectionPolicy rejectionPolicy) {
+        this.delegate = delegate;
+        this.admission = new ResizableSemaphore(maxPendingTasks);
+        this.rejectionPolicy = rejectionPolicy;
+        this.blockTimeoutNanos = Long.MAX_VALUE;
+    }
+
+    ExecutorService getDelegate() {
+        return delegate;
+    }
+
+    TaskMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param delegate new executor
+     * @return previous executor, which is no longer used for new tasks
+     */
+    ExecutorService swap(ExecutorService delegate) {
+        ExecutorService previous = this.delegate;
+        this.delegate = delegate;
+        return previous;
+    }
+
+    void setMaxPendingTasks(int maxPendingTasks) {
+        admission.setLimit(maxPendingTasks);
+    }
+
+    int getMaxPendingTasks() {
+        return admission.getLimit();
+    }
+
+    /**
+     * @return number of tasks queued or running
+     */
+    int getPendingTasks() {
+        return admission.inUse();
+    }
+
+    void setRejectionPolicy(RejectionPolicy rejectionPolicy, long blockTimeout, TimeUnit unit) {
+        this.rejectionPolicy = rejectionPolicy;
+        this.blockTimeoutNanos = unit.toNanos(blockTimeout);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, rejectionPolicy);
+    }
+
+    /**
+     * @param command
+     * @param rejectionPolicy overrides the policy of the executor, e.g. {@link RejectionPolicy#FAIL_FAST} for
+     *                        a thread which must neither block nor run the task itself
+     */
+    void execute(Runnable command, RejectionPolicy rejectionPolicy) {
+        long submittedAt = System.nanoTime();
+
+        if (!admit(rejectionPolicy)) {
+            metrics.callerRuns();
+            run(command, submittedAt);
+            return;
+        }
+
+        try {
+            delegate.execute(() -> {
+                try {
+                    run(command, submittedAt);
+                } finally {
+                    admission.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            throw e;
+        }
+    }
+
+    private void run(Runnable command, long submittedAt) {
+        long startedAt = metrics.started(submittedAt);
+        boolean success = false;
+
+        try {
+            command.run();
+            success = true;
+        } finally {
+            metrics.finished(startedAt, success);
+        }
+    }
+
+    /**
+     * @return true if the task should be handed to the delegate, false if the caller should run it
+     */
+    private boolean admit(RejectionPolicy rejectionPolicy) {
+        if (admission.tryAcquire()) {
+            return true;
+        }
+
+        switch (rejectionPolicy) {
+            case CALLER_RUNS:
+                return false;
+            case BLOCK:
+                try {
+                    if (admission.tryAcquire(blockTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    metrics.rejected();
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("interrupted while waiting for a free slot", e);
+                }
+                metrics.rejected();
+                throw new RejectedExecutionException("timed out waiting for a free slot, " + getMaxPendingTasks() + " tasks pending");
+            case FAIL_FAST:
+            default:
+                metrics.rejected();
+                throw new RejectedExecutionException("too many pending tasks, limit is " + getMaxPendingTasks());
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,22 @@
+package com.statsmind.commons.concurrent;
+
+/**
+ * Adjusts the concurrency of a {@link ThreadPool.Queue} from the latency and failures it observes,
+ * see {@link AimdLimit} and {@link GradientLimit}. Implementations must be thread-safe.
+ */
+public interface ConcurrencyLimit {
+    /**
+     * @return current limit
+     */
+    int getLimit();
+
+    /**
+     * called once for every completed task
+     *
+     * @param rttNanos time from taking a slot in the queue to completion
+     * @param inFlight number of tasks in flight when the task took its slot
+     * @param dropped  true if the task failed or timed out
+     * @return the new limit
+     */
+    int onSample(long rttNanos, int inFlight, boolean dropped);
+}
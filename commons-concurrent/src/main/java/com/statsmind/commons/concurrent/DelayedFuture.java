@@ -0,0 +1,44 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of a delayed task: the scheduler thread only fires the trigger, the task itself runs in the pool
+ *
+ * @param <U>
+ */
+final class DelayedFuture<U> extends CompletableFuture<U> implements ScheduledFuture<U> {
+    private volatile ScheduledFuture<?> trigger;
+
+    void setTrigger(ScheduledFuture<?> trigger) {
+        this.trigger = trigger;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        ScheduledFuture<?> trigger = this.trigger;
+        return trigger == null ? 0 : trigger.getDelay(unit);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        if (other == this) {
+            return 0;
+        }
+
+        return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        ScheduledFuture<?> trigger = this.trigger;
+        if (trigger != null) {
+            trigger.cancel(false);
+        }
+
+        return super.cancel(mayInterruptIfRunning);
+    }
+}
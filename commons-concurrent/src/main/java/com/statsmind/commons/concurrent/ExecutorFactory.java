@@ -0,0 +1,41 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the executor which actually runs the tasks of a {@link ThreadPool}
+ */
+public interface ExecutorFactory {
+    /**
+     * @param name            prefix of the thread names
+     * @param parallelism     number of threads actively running tasks
+     * @param maximumPoolSize upper bound of threads, including the ones compensating blocked threads
+     * @return
+     */
+    ExecutorService newExecutor(String name, int parallelism, int maximumPoolSize);
+
+    /**
+     * work-stealing executor backed by {@link java.util.concurrent.ForkJoinPool}, the default one
+     *
+     * @return
+     */
+    static ExecutorFactory workStealing() {
+        return WorkStealingExecutorFactory.INSTANCE;
+    }
+
+    /**
+     * one virtual thread per task on JDK 21+, same as {@link #workStealing()} on older JDKs
+     *
+     * @return
+     */
+    static ExecutorFactory virtualThreads() {
+        return VirtualThreadExecutorFactory.INSTANCE;
+    }
+
+    /**
+     * @return true if the running JDK supports virtual threads
+     */
+    static boolean isVirtualThreadSupported() {
+        return VirtualThreads.isSupported();
+    }
+}
@@ -0,0 +1,90 @@
+package com.statsmind.commons.concurrent;
+
+/**
+ * Latency gradient: compares the latency of each task with a slowly moving average of past latencies.
+ * When tasks get slower than usual the downstream is queueing, so the limit shrinks in proportion,
+ * otherwise it grows by about sqrt(limit) to probe for more throughput. Failures and timeouts shrink the
+ * limit like {@link AimdLimit} does.
+ */
+public class GradientLimit implements ConcurrencyLimit {
+    private final int minLimit;
+    private final int maxLimit;
+    private double tolerance = 1.5;
+    private double smoothing = 0.2;
+    private double backoffRatio = 0.9;
+    private int longWindow = 600;
+    private double longRtt;
+    private double limit;
+
+    public GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @param tolerance how much slower than the average a task may be before the limit shrinks, at least 1
+     * @return
+     */
+    public synchronized GradientLimit tolerance(double tolerance) {
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * @param smoothing weight of each new limit, between 0 and 1
+     * @return
+     */
+    public synchronized GradientLimit smoothing(double smoothing) {
+        this.smoothing = smoothing;
+        return this;
+    }
+
+    /**
+     * @param longWindow number of samples in the average latency
+     * @return
+     */
+    public synchronized GradientLimit longWindow(int longWindow) {
+        this.longWindow = longWindow;
+        return this;
+    }
+
+    public synchronized GradientLimit backoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public synchronized int onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (dropped) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            return (int) limit;
+        }
+
+        double shortRtt = Math.max(1, rttNanos);
+        longRtt = longRtt == 0 ? shortRtt : longRtt + (shortRtt - longRtt) / longWindow;
+
+        /**
+         * the average drifts up while the downstream is overloaded, pull it back once latency recovers
+         */
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+
+        if (inFlight * 2 < limit) {
+            return (int) limit;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        return (int) limit;
+    }
+}
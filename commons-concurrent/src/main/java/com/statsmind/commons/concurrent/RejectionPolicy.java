@@ -0,0 +1,20 @@
+package com.statsmind.commons.concurrent;
+
+/**
+ * What {@link ThreadPool} does with a task when the number of pending tasks has reached its limit
+ */
+public enum RejectionPolicy {
+    /**
+     * run the task in the thread which submits it, this slows the producer down naturally
+     */
+    CALLER_RUNS,
+    /**
+     * throw {@link java.util.concurrent.RejectedExecutionException} immediately
+     */
+    FAIL_FAST,
+    /**
+     * block the submitting thread until a slot is free, or throw
+     * {@link java.util.concurrent.RejectedExecutionException} after the configured timeout
+     */
+    BLOCK
+}
@@ -0,0 +1,42 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Semaphore whose number of permits can be changed after creation
+ */
+final class ResizableSemaphore extends Semaphore {
+    private int limit;
+
+    ResizableSemaphore(int limit) {
+        super(limit);
+        this.limit = limit;
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * shrinking does not wait for the permits in use, it only makes them unavailable once released
+     *
+     * @param newLimit
+     */
+    synchronized void setLimit(int newLimit) {
+        int delta = newLimit - limit;
+        if (delta > 0) {
+            release(delta);
+        } else if (delta < 0) {
+            reducePermits(-delta);
+        }
+
+        limit = newLimit;
+    }
+
+    /**
+     * @return number of permits in use
+     */
+    synchronized int inUse() {
+        return limit - availablePermits();
+    }
+}
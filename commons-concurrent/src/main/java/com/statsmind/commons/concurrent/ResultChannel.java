@@ -0,0 +1,95 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded channel between the tasks of a {@link ThreadPool.Queue} and one consumer thread.
+ * <p>
+ * A result delivered while the channel is full blocks the delivery thread of the queue until the consumer
+ * catches up, and its task keeps its permit meanwhile, so a slow consumer eventually blocks
+ * {@link ThreadPool.Queue#enqueue(Object)} too.
+ *
+ * @param <T>
+ * @param <U>
+ */
+final class ResultChannel<T, U> implements ResultSink<T, U>, Iterator<U> {
+    private static final Object END = new Object();
+    private static final Object NULL = new Object();
+
+    private final BlockingQueue<Object> items;
+    private final boolean ignoreException;
+    private Object next;
+
+    ResultChannel(int bufferSize, boolean ignoreException) {
+        this.items = new ArrayBlockingQueue<>(bufferSize);
+        this.ignoreException = ignoreException;
+    }
+
+    @Override
+    public void onResult(T param, U result) {
+        put(result == null ? NULL : result);
+    }
+
+    @Override
+    public void onError(T param, Throwable throwable) {
+        if (!ignoreException) {
+            put(new Failure(throwable));
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        put(END);
+    }
+
+    private void put(Object item) {
+        try {
+            items.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the consumer", e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = items.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for results", e);
+            }
+        }
+
+        return next != END;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public U next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Object item = next;
+        next = null;
+
+        if (item instanceof Failure) {
+            throw new RuntimeException(((Failure) item).throwable);
+        }
+
+        return item == NULL ? null : (U) item;
+    }
+
+    private static final class Failure {
+        private final Throwable throwable;
+
+        private Failure(Throwable throwable) {
+            this.throwable = throwable;
+        }
+    }
+}
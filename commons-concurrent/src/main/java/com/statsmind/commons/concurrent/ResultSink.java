@@ -0,0 +1,32 @@
+package com.statsmind.commons.concurrent;
+
+/**
+ * Receives the results of a {@link ThreadPool.Queue} in completion order, one at a time, from a delivery thread
+ * of the pool, so that a sink which blocks holds neither the workers of the pool nor the timer of the timeouts.
+ * <p>
+ * A queue with a sink does not keep any result itself, so its memory use does not grow with the number of
+ * processed params. Implementations must be thread-safe.
+ *
+ * @param <T> type of the param
+ * @param <U> type of the result
+ */
+public interface ResultSink<T, U> {
+    void onResult(T param, U result);
+
+    /**
+     * the task failed, timed out or was cancelled
+     *
+     * @param param
+     * @param throwable
+     */
+    default void onError(T param, Throwable throwable) {
+
+    }
+
+    /**
+     * the queue has been closed and every task has completed, no more results will come
+     */
+    default void onComplete() {
+
+    }
+}
@@ -0,0 +1,97 @@
+package com.statsmind.commons.concurrent;
+
+import com.statsmind.commons.metrics.LatencyHistogram;
+import com.statsmind.commons.metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and throughput of the tasks run by a {@link ThreadPool} or a {@link ThreadPool.Queue}.
+ * <p>
+ * Wait time is measured from submission until a thread starts the task, run time from start to end.
+ * Recording does not allocate.
+ */
+public class TaskMetrics {
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram runTime = new LatencyHistogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * @param submittedAt System.nanoTime() when the task was submitted
+     * @return System.nanoTime() when the task starts
+     */
+    long started(long submittedAt) {
+        long now = System.nanoTime();
+        waitTime.record(now - submittedAt);
+        active.incrementAndGet();
+        return now;
+    }
+
+    void finished(long startedAt, boolean success) {
+        runTime.record(System.nanoTime() - startedAt);
+        active.decrementAndGet();
+
+        if (success) {
+            completed.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    void rejected() {
+        rejected.increment();
+    }
+
+    void callerRuns() {
+        callerRuns.increment();
+    }
+
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    public LatencyHistogram getRunTime() {
+        return runTime;
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of tasks run by the submitting thread because the pool was saturated
+     */
+    public long getCallerRuns() {
+        return callerRuns.sum();
+    }
+
+    /**
+     * @return number of tasks running right now
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    void bindTo(MetricsRegistry registry, String prefix, String... tags) {
+        registry.timer(prefix + ".wait", waitTime, tags);
+        registry.timer(prefix + ".run", runTime, tags);
+        registry.counter(prefix + ".completed", this::getCompleted, tags);
+        registry.counter(prefix + ".failed", this::getFailed, tags);
+        registry.counter(prefix + ".rejected", this::getRejected, tags);
+        registry.counter(prefix + ".caller.runs", this::getCallerRuns, tags);
+        registry.gauge(prefix + ".active", this::getActive, tags);
+    }
+}
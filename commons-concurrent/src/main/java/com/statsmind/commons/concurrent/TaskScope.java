@@ -0,0 +1,456 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Structured fan-out/fan-in: subtasks forked in a scope never outlive it.
+ * <p>
+ * Usage:
+ * <pre>
+ * try (TaskScope&lt;Object&gt; scope = ThreadPool.getInstance().scope(2, TimeUnit.SECONDS)) {
+ *     Subtask&lt;User&gt; user = scope.fork(() -&gt; findUser(id));
+ *     Subtask&lt;List&lt;Order&gt;&gt; orders = scope.fork(() -&gt; findOrders(id));
+ *     scope.join().throwIfFailed();
+ *     return new Profile(user.join(), orders.join());
+ * }
+ * </pre>
+ * <p>
+ * With {@link Policy#SHUTDOWN_ON_FAILURE} the first failure cancels the other subtasks, with
+ * {@link Policy#SHUTDOWN_ON_SUCCESS} the first success does. Cancelling interrupts the threads running the
+ * subtasks. When the deadline passes every unfinished subtask is cancelled, whether the scope is joined or not,
+ * and {@link #join()} throws TimeoutException.
+ * <p>
+ * Joining blocks through {@link ForkJoinPool#managedBlock}, so a ForkJoinPool running subtasks which join
+ * scopes of their own adds threads instead of running out of them.
+ * <p>
+ * A scope opened inside a subtask belongs to it: it inherits the deadline when that is earlier than its own,
+ * and is cancelled together with the subtask. {@link #remaining(TimeUnit)} tells code running in a subtask
+ * how much time is left, e.g. for a JDBC query timeout.
+ *
+ * @param <T> type of the subtask results
+ */
+public class TaskScope<T> implements AutoCloseable {
+    private static final ThreadLocal<Subtask<?>> CURRENT = new ThreadLocal<>();
+
+    public enum Policy {
+        /**
+         * join when every subtask has succeeded or as soon as one fails
+         */
+        SHUTDOWN_ON_FAILURE,
+        /**
+         * join as soon as one subtask succeeds, or when every subtask has failed
+         */
+        SHUTDOWN_ON_SUCCESS
+    }
+
+    private final ThreadPool threadPool;
+    private final Policy policy;
+    private final long deadline;
+    private final boolean hasDeadline;
+    private final Subtask<?> parent;
+    /**
+     * shuts the scope down at the deadline, null without deadline
+     */
+    private final ScheduledFuture<?> deadlineTask;
+    /**
+     * guarded by this
+     */
+    private final List<Subtask<? extends T>> subtasks = new ArrayList<>();
+    private int finished;
+    private boolean isShutdown;
+    private Throwable failure;
+    private T result;
+    private boolean hasResult;
+    private boolean hasTimedOut;
+
+    TaskScope(ThreadPool threadPool, Policy policy, long timeout, TimeUnit unit) {
+        this.threadPool = threadPool;
+        this.policy = policy;
+        this.parent = CURRENT.get();
+
+        long timeoutNanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + timeoutNanos;
+        boolean hasDeadline = timeoutNanos < Long.MAX_VALUE / 2;
+
+        if (parent != null) {
+            parent.children.add(this);
+
+            if (parent.scope.hasDeadline && (!hasDeadline || parent.scope.deadline - deadline < 0)) {
+                deadline = parent.scope.deadline;
+                hasDeadline = true;
+            }
+        }
+
+        this.deadline = deadline;
+        this.hasDeadline = hasDeadline;
+        this.deadlineTask = hasDeadline ? threadPool.getScheduler().schedule(this::onDeadline,
+            Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS) : null;
+    }
+
+    private void onDeadline() {
+        synchronized (this) {
+            if (hasResult || isShutdown || finished == subtasks.size()) {
+                return;
+            }
+            hasTimedOut = true;
+        }
+
+        shutdown();
+    }
+
+    /**
+     * @param unit
+     * @return time left before the deadline of the scope the current subtask belongs to,
+     * Long.MAX_VALUE when not running in a subtask or without deadline
+     */
+    public static long remaining(TimeUnit unit) {
+        Subtask<?> current = CURRENT.get();
+        if (current == null || !current.scope.hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+
+        return unit.convert(Math.max(0, current.scope.deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * run the task in the pool, within this scope
+     *
+     * @param task
+     * @param <U>
+     * @return
+     */
+    public <U extends T> Subtask<U> fork(Callable<U> task) {
+        Subtask<U> subtask = new Subtask<>(this, task);
+
+        synchronized (this) {
+            if (isShutdown) {
+                subtask.cancel(false);
+                return subtask;
+            }
+
+            subtasks.add(subtask);
+        }
+
+        subtask.whenComplete((result, throwable) -> onComplete(subtask));
+
+        try {
+            threadPool.getExecutor().execute(subtask);
+        } catch (RejectedExecutionException e) {
+            subtask.completeExceptionally(e);
+        }
+
+        return subtask;
+    }
+
+    private void onComplete(Subtask<? extends T> subtask) {
+        boolean shutdownNow = false;
+
+        synchronized (this) {
+            finished++;
+
+            if (!isShutdown) {
+                if (policy == Policy.SHUTDOWN_ON_FAILURE && subtask.isCompletedExceptionally()) {
+                    failure = failureOf(subtask);
+                    shutdownNow = true;
+                } else if (policy == Policy.SHUTDOWN_ON_SUCCESS && !subtask.isCompletedExceptionally()) {
+                    result = subtask.join();
+                    hasResult = true;
+                    shutdownNow = true;
+                } else if (policy == Policy.SHUTDOWN_ON_SUCCESS) {
+                    failure = failureOf(subtask);
+                }
+            }
+
+            notifyAll();
+        }
+
+        if (shutdownNow) {
+            shutdown();
+        }
+    }
+
+    private static Throwable failureOf(CompletableFuture<?> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (CancellationException e) {
+            return e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+
+    /**
+     * wait until the policy is satisfied or every subtask has finished
+     *
+     * @return
+     * @throws InterruptedException the scope is shut down before throwing
+     * @throws TimeoutException     the deadline has passed, the scope is shut down before throwing
+     */
+    public TaskScope<T> join() throws InterruptedException, TimeoutException {
+        try {
+            if (!await(false, Long.MAX_VALUE)) {
+                shutdown();
+                throw new TimeoutException("deadline of the scope has passed");
+            }
+        } catch (InterruptedException e) {
+            shutdown();
+            throw e;
+        }
+
+        return this;
+    }
+
+    /**
+     * @param untilSuccess only return true on success, not when every subtask failed
+     * @param timeoutNanos
+     * @return false if timed out
+     */
+    private boolean await(boolean untilSuccess, long timeoutNanos) throws InterruptedException {
+        long now = System.nanoTime();
+        long until = timeoutNanos < Long.MAX_VALUE / 2 ? now + timeoutNanos : Long.MAX_VALUE;
+        if (hasDeadline && (until == Long.MAX_VALUE || deadline - until < 0)) {
+            until = deadline;
+        }
+
+        Waiter waiter = new Waiter(untilSuccess, until);
+        ForkJoinPool.managedBlock(waiter);
+        return waiter.isSatisfied;
+    }
+
+    /**
+     * waits on the monitor of the scope, in steps so that the pool can compensate for the blocked thread
+     */
+    private final class Waiter implements ForkJoinPool.ManagedBlocker {
+        private final boolean untilSuccess;
+        private final long until;
+        private boolean isSatisfied;
+
+        Waiter(boolean untilSuccess, long until) {
+            this.untilSuccess = untilSuccess;
+            this.until = until;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            synchronized (TaskScope.this) {
+                return isDone(System.nanoTime());
+            }
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            synchronized (TaskScope.this) {
+                long now = System.nanoTime();
+                if (isDone(now)) {
+                    return true;
+                }
+
+                if (until == Long.MAX_VALUE) {
+                    TaskScope.this.wait();
+                } else {
+                    TimeUnit.NANOSECONDS.timedWait(TaskScope.this, until - now);
+                }
+
+                return isDone(System.nanoTime());
+            }
+        }
+
+        /**
+         * guarded by the scope, sets isSatisfied once done
+         */
+        private boolean isDone(long now) {
+            if (hasTimedOut) {
+                isSatisfied = false;
+                return true;
+            }
+
+            if (hasResult || (isShutdown && !untilSuccess) || (!untilSuccess && finished == subtasks.size())) {
+                isSatisfied = true;
+                return true;
+            }
+
+            if ((untilSuccess && finished == subtasks.size()) || (until != Long.MAX_VALUE && until - now <= 0)) {
+                isSatisfied = false;
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * with {@link Policy#SHUTDOWN_ON_FAILURE}, after {@link #join()}
+     *
+     * @throws ExecutionException with the cause of the first failure
+     */
+    public synchronized TaskScope<T> throwIfFailed() throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+
+        return this;
+    }
+
+    /**
+     * with {@link Policy#SHUTDOWN_ON_FAILURE}, after {@link #join()}
+     *
+     * @return results in fork order
+     * @throws ExecutionException with the cause of the first failure
+     */
+    public synchronized List<T> results() throws ExecutionException {
+        throwIfFailed();
+
+        List<T> results = new ArrayList<>(subtasks.size());
+        for (Subtask<? extends T> subtask : subtasks) {
+            results.add(subtask.join());
+        }
+
+        return results;
+    }
+
+    /**
+     * with {@link Policy#SHUTDOWN_ON_SUCCESS}, after {@link #join()}
+     *
+     * @return result of the first successful subtask
+     * @throws ExecutionException with the cause of the last failure if no subtask succeeded
+     */
+    public synchronized T result() throws ExecutionException {
+        if (!hasResult) {
+            throw new ExecutionException(failure != null ? failure : new IllegalStateException("no subtask has succeeded"));
+        }
+
+        return result;
+    }
+
+    /**
+     * cancel every unfinished subtask, further forks are cancelled at once
+     */
+    public void shutdown() {
+        List<Subtask<? extends T>> unfinished;
+
+        synchronized (this) {
+            isShutdown = true;
+            unfinished = new ArrayList<>(subtasks);
+            notifyAll();
+        }
+
+        for (Subtask<? extends T> subtask : unfinished) {
+            subtask.cancel(true);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (deadlineTask != null) {
+            deadlineTask.cancel(false);
+        }
+        shutdown();
+
+        if (parent != null) {
+            parent.children.remove(this);
+        }
+    }
+
+    /**
+     * fork attempts of the same task until one succeeds, each attempt starts after hedgeDelay or as soon
+     * as the previous ones have all failed
+     */
+    T hedge(Callable<? extends T> task, long hedgeDelay, TimeUnit unit, int maxAttempts)
+        throws InterruptedException, TimeoutException, ExecutionException {
+        for (int attempt = 1; attempt <= maxAttempts; ++attempt) {
+            fork(task::call);
+
+            if (attempt < maxAttempts && await(true, unit.toNanos(hedgeDelay))) {
+                break;
+            }
+        }
+
+        return join().result();
+    }
+
+    /**
+     * a task forked in a {@link TaskScope}, cancelling it interrupts the thread running it
+     *
+     * @param <T>
+     */
+    public static final class Subtask<T> extends CompletableFuture<T> implements Runnable {
+        private final TaskScope<?> scope;
+        private final Callable<T> task;
+        private final List<TaskScope<?>> children = new CopyOnWriteArrayList<>();
+        private Thread runner;
+
+        private Subtask(TaskScope<?> scope, Callable<T> task) {
+            this.scope = scope;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+
+            Subtask<?> previous = CURRENT.get();
+            CURRENT.set(this);
+
+            try {
+                complete(task.call());
+            } catch (Throwable throwable) {
+                completeExceptionally(throwable);
+            } finally {
+                CURRENT.set(previous);
+
+                synchronized (this) {
+                    runner = null;
+                }
+
+                /**
+                 * do not leak the interrupt of a cancelled subtask to the next task of the pool thread
+                 */
+                if (isCancelled()) {
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+            if (cancelled) {
+                for (TaskScope<?> child : children) {
+                    child.shutdown();
+                }
+
+                if (mayInterruptIfRunning) {
+                    synchronized (this) {
+                        if (runner != null) {
+                            runner.interrupt();
+                        }
+                    }
+                }
+            }
+
+            return cancelled;
+        }
+    }
+}
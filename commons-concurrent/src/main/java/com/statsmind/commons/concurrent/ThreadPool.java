@@ -1,54 +1,197 @@
 package com.statsmind.commons.concurrent;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import com.statsmind.commons.metrics.MetricsRegistry;
+import com.statsmind.commons.metrics.MetricsSource;
 import lombok.SneakyThrows;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class ThreadPool implements MetricsSource {
+    /**
+     * upper bound of tasks waiting or running in a pool, unless configured by {@link #maxPendingTasks(int)}
+     */
+    public static final int DEFAULT_MAX_PENDING_TASKS = 1 << 16;
 
-public class ThreadPool {
     private static ThreadPool instance;
-    private final ScheduledThreadPoolExecutor poolExecutor;
 
-    private ThreadPool(int numThreads) {
+    private final String name;
+    private final AtomicInteger queueSequence = new AtomicInteger();
+    private final BoundedExecutor executor;
+    /**
+     * only fires delayed tasks, the tasks themselves run in {@link #executor}
+     */
+    private final ScheduledThreadPoolExecutor scheduler;
+    /**
+     * delivers the results of the queues to their {@link ResultSink} and flushes the lingering batches of the
+     * batching queues, both of which may block, with at most one thread per queue
+     */
+    private final ExecutorService delivery;
+    private ExecutorFactory executorFactory;
+    private int corePoolSize;
+    private int maximumPoolSize;
+
+    private ThreadPool(String name, int numThreads) {
         int corePoolSize = Runtime.getRuntime().availableProcessors();
 
         if (numThreads > 0) {
             corePoolSize = numThreads;
         }
 
-        this.poolExecutor = new ScheduledThreadPoolExecutor(corePoolSize);
-//
-//        this.poolExecutor = new ThreadPoolExecutor(corePoolSize, maximumPoolSize,
-//            Integer.MAX_VALUE, TimeUnit.SECONDS,
-//            new LinkedBlockingQueue());
+        this.name = name;
+        this.corePoolSize = corePoolSize;
+        this.maximumPoolSize = corePoolSize;
+        this.executorFactory = ExecutorFactory.workStealing();
+        this.executor = new BoundedExecutor(
+            executorFactory.newExecutor(name, corePoolSize, maximumPoolSize),
+            DEFAULT_MAX_PENDING_TASKS, RejectionPolicy.CALLER_RUNS);
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, name + "-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+
+        this.delivery = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public static synchronized ThreadPool getInstance() {
         if (instance == null) {
-            instance = new ThreadPool(0);
+            instance = new ThreadPool("statsmind-pool", 0);
         }
 
         return instance;
     }
 
-    public ThreadPool corePoolSize(int corePoolSize) {
-        this.poolExecutor.setCorePoolSize(corePoolSize);
+    /**
+     * a separate pool, e.g. for blocking I/O tasks:
+     * <pre>
+     * ThreadPool.create("jdbc", 0).executorFactory(ExecutorFactory.virtualThreads())
+     * </pre>
+     *
+     * @param name       prefix of the thread names
+     * @param numThreads number of threads, 0 for the number of available processors
+     * @return
+     */
+    public static ThreadPool create(String name, int numThreads) {
+        return new ThreadPool(name, numThreads);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * number of threads actively running tasks, the executor is recreated when it changes
+     *
+     * @param corePoolSize
+     * @return
+     */
+    public synchronized ThreadPool corePoolSize(int corePoolSize) {
+        this.corePoolSize = corePoolSize;
+        this.maximumPoolSize = Math.max(corePoolSize, this.maximumPoolSize);
+        return rebuild();
+    }
+
+    /**
+     * upper bound of threads, the pool only grows beyond corePoolSize to compensate blocked threads
+     *
+     * @param maximumPoolSize
+     * @return
+     */
+    public synchronized ThreadPool maximumPoolSize(int maximumPoolSize) {
+        this.maximumPoolSize = maximumPoolSize;
+        return rebuild();
+    }
+
+    public synchronized ThreadPool executorFactory(ExecutorFactory executorFactory) {
+        this.executorFactory = executorFactory;
+        return rebuild();
+    }
+
+    /**
+     * @param maxPendingTasks number of tasks allowed to wait or run at the same time,
+     *                        the {@link RejectionPolicy} decides what happens to the rest
+     * @return
+     */
+    public ThreadPool maxPendingTasks(int maxPendingTasks) {
+        this.executor.setMaxPendingTasks(maxPendingTasks);
         return this;
     }
 
-    public ThreadPool maximumPoolSize(int maximumPoolSize) {
-        this.poolExecutor.setMaximumPoolSize(maximumPoolSize);
+    public ThreadPool rejectionPolicy(RejectionPolicy rejectionPolicy) {
+        return rejectionPolicy(rejectionPolicy, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param rejectionPolicy
+     * @param blockTimeout    how long {@link RejectionPolicy#BLOCK} waits for a free slot
+     * @param unit
+     * @return
+     */
+    public ThreadPool rejectionPolicy(RejectionPolicy rejectionPolicy, long blockTimeout, TimeUnit unit) {
+        this.executor.setRejectionPolicy(rejectionPolicy, blockTimeout, unit);
         return this;
     }
 
-    public ScheduledThreadPoolExecutor getExecutor() {
-        return poolExecutor;
+    private ThreadPool rebuild() {
+        this.executor.swap(executorFactory.newExecutor(name, corePoolSize, maximumPoolSize)).shutdown();
+        return this;
+    }
+
+    /**
+     * executor with admission control, tasks submitted to it directly are bounded too
+     *
+     * @return
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * executor of the same pool which rejects a task with {@link RejectedExecutionException} when the pool is
+     * saturated, whatever its rejection policy; for optional work, e.g. a refresh, which must neither run in the
+     * caller nor make it wait
+     *
+     * @return
+     */
+    public Executor getFailFastExecutor() {
+        return command -> executor.execute(command, RejectionPolicy.FAIL_FAST);
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public TaskMetrics getMetrics() {
+        return executor.getMetrics();
+    }
+
+    /**
+     * publish the metrics of this pool, tagged with {@code pool}, queues are bound separately
+     *
+     * @param registry
+     */
+    @Override
+    public void bindTo(MetricsRegistry registry) {
+        executor.getMetrics().bindTo(registry, "threadpool", "pool", name);
+        registry.gauge("threadpool.pending", executor::getPendingTasks, "pool", name);
+        registry.gauge("threadpool.pending.max", executor::getMaxPendingTasks, "pool", name);
+        registry.gauge("threadpool.threads", () -> {
+            ExecutorService delegate = executor.getDelegate();
+            return delegate instanceof ForkJoinPool ? ((ForkJoinPool) delegate).getPoolSize() : executor.getMetrics().getActive();
+        }, "pool", name);
     }
 
     public CompletableFuture<Void> invoke(Runnable runnable) {
@@ -56,15 +199,15 @@ public class ThreadPool {
     }
 
     public ScheduledFuture<?> invoke(Runnable runnable, long delay, TimeUnit unit) {
-        return getExecutor().schedule(runnable, delay, unit);
+        return schedule(Executors.callable(runnable), delay, unit);
     }
 
     public <U> ScheduledFuture<U> invoke(Callable<U> callable, long delay, TimeUnit unit) {
-        return getExecutor().schedule(callable, delay, unit);
+        return schedule(callable, delay, unit);
     }
 
     public <U> ScheduledFuture<U> invoke(Supplier<U> supplier, long delay, TimeUnit unit) {
-        return getExecutor().schedule(() -> supplier.get(), delay, unit);
+        return schedule(() -> supplier.get(), delay, unit);
     }
 
     public <U> CompletableFuture<U> invoke(Supplier<U> supplier) {
@@ -75,137 +218,797 @@ public class ThreadPool {
         return invoke(supplier).exceptionally(throwable -> defaultValue);
     }
 
+    private <U> ScheduledFuture<U> schedule(Callable<U> callable, long delay, TimeUnit unit) {
+        DelayedFuture<U> future = new DelayedFuture<>();
 
+        future.setTrigger(scheduler.schedule(() -> {
+            if (future.isDone()) {
+                return;
+            }
+
+            /**
+             * the scheduler thread fires every delayed task of the pool, it must neither run the task nor wait
+             * for a free slot when the pool is saturated
+             */
+            try {
+                executor.execute(() -> {
+                    if (future.isDone()) {
+                        // cancelled while waiting in the pool
+                        return;
+                    }
+
+                    try {
+                        future.complete(callable.call());
+                    } catch (Throwable throwable) {
+                        future.completeExceptionally(throwable);
+                    }
+                }, RejectionPolicy.FAIL_FAST);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }, delay, unit));
+
+        return future;
+    }
+
+    /**
+     * open a scope which joins when every subtask has succeeded or as soon as one fails
+     *
+     * @param timeout deadline of the scope and of the scopes opened by its subtasks
+     * @param unit
+     * @param <T>
+     * @return
+     */
+    public <T> TaskScope<T> scope(long timeout, TimeUnit unit) {
+        return scope(TaskScope.Policy.SHUTDOWN_ON_FAILURE, timeout, unit);
+    }
+
+    public <T> TaskScope<T> scope(TaskScope.Policy policy, long timeout, TimeUnit unit) {
+        return new TaskScope<>(this, policy, timeout, unit);
+    }
+
+    /**
+     * hedged request: run the task, and run it again if no attempt has succeeded after hedgeDelay, up to
+     * maxAttempts times; the first success cancels the other attempts
+     *
+     * @param task        must be idempotent
+     * @param hedgeDelay  usually the p95 latency of the task
+     * @param hedgeUnit
+     * @param maxAttempts
+     * @param timeout     deadline of all attempts
+     * @param unit
+     * @param <T>
+     * @return
+     * @throws ExecutionException with the cause of the last failure if every attempt failed
+     */
+    public <T> T hedge(Callable<T> task, long hedgeDelay, TimeUnit hedgeUnit, int maxAttempts, long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        try (TaskScope<T> scope = scope(TaskScope.Policy.SHUTDOWN_ON_SUCCESS, timeout, unit)) {
+            return scope.hedge(task, hedgeDelay, hedgeUnit, maxAttempts);
+        }
+    }
+
+    /**
+     * run the tasks concurrently, the first failure cancels the others
+     *
+     * @return results in task order
+     * @throws RuntimeException with the first failure, or a TimeoutException as cause
+     */
     public <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
         throws InterruptedException {
-        return getExecutor().invokeAll(tasks, timeout, unit)
-            .stream().map(future -> {
-                try {
-                    return future.get();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }).collect(Collectors.toList());
+        try (TaskScope<T> scope = scope(timeout, unit)) {
+            tasks.forEach(scope::fork);
+            return scope.join().results();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
-        return invokeAll(tasks, Integer.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return invokeAll(tasks, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
     }
 
     public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws ExecutionException, InterruptedException, TimeoutException {
-        return invokeAny(tasks, Integer.MAX_VALUE, TimeUnit.SECONDS);
+        return invokeAny(tasks, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
     }
 
-
+    /**
+     * run the tasks concurrently, the first success cancels the others
+     *
+     * @throws ExecutionException with the cause of the last failure if every task failed
+     */
     public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
         throws InterruptedException, ExecutionException, TimeoutException {
-        return getExecutor().invokeAny(tasks, timeout, unit);
+        try (TaskScope<T> scope = scope(TaskScope.Policy.SHUTDOWN_ON_SUCCESS, timeout, unit)) {
+            tasks.forEach(scope::fork);
+            return scope.join().result();
+        }
     }
 
     /**
      * @param supplierFactory
-     * @param capacity        the queue is blocked when queue size exceeds capacity
+     * @param capacity        the queue is blocked when queue size exceeds capacity, it limits the concurrency
+     *                        of the queue whatever executor runs the tasks, virtual threads included
      * @param <T>
      * @param <U>
      * @return
      */
     public <T, U> Queue<T, U> createQueue(InvokeFunc<T, U> supplierFactory, int capacity) {
-        return new Queue<T, U>(supplierFactory, this, capacity);
+        return createQueue("queue-" + queueSequence.incrementAndGet(), supplierFactory, capacity);
+    }
+
+    /**
+     * @param name            name of the queue in its metrics
+     * @param supplierFactory
+     * @param capacity
+     * @param <T>
+     * @param <U>
+     * @return
+     * @see #createQueue(InvokeFunc, int)
+     */
+    public <T, U> Queue<T, U> createQueue(String name, InvokeFunc<T, U> supplierFactory, int capacity) {
+        return new Queue<T, U>(name, supplierFactory, this, capacity);
+    }
+
+    /**
+     * @param batchInvokeFunc
+     * @param maxBatchSize    a batch is invoked as soon as it has that many params
+     * @param maxLinger       a batch is invoked when its first param has waited that long, even if not full
+     * @param unit
+     * @param <T>
+     * @param <U>
+     * @return
+     * @see BatchingQueue
+     */
+    public <T, U> BatchingQueue<T, U> createBatchingQueue(BatchInvokeFunc<T, U> batchInvokeFunc,
+                                                          int maxBatchSize, long maxLinger, TimeUnit unit) {
+        return createBatchingQueue(batchInvokeFunc, corePoolSize, maxBatchSize, maxLinger, unit);
+    }
+
+    /**
+     * @param batchInvokeFunc
+     * @param capacity        number of batches allowed to run at the same time
+     * @param maxBatchSize
+     * @param maxLinger
+     * @param unit
+     * @param <T>
+     * @param <U>
+     * @return
+     * @see BatchingQueue
+     */
+    public <T, U> BatchingQueue<T, U> createBatchingQueue(BatchInvokeFunc<T, U> batchInvokeFunc, int capacity,
+                                                          int maxBatchSize, long maxLinger, TimeUnit unit) {
+        return new BatchingQueue<T, U>(batchInvokeFunc, this, capacity, maxBatchSize, maxLinger, unit);
+    }
+
+    /**
+     * A queue which groups params into batches, so that one invocation serves many params, e.g. one
+     * {@code where id in (...)} query instead of one query per id.
+     * <p>
+     * A batch is invoked when it is full or when it has lingered long enough, each param still gets its own
+     * future which completes with the result at the same position.
+     *
+     * @param <T>
+     * @param <U>
+     */
+    public static class BatchingQueue<T, U> {
+        private final Queue<Batch<T, U>, List<U>> queue;
+        private final ThreadPool threadPool;
+        private final int maxBatchSize;
+        private final long maxLinger;
+        private final TimeUnit unit;
+        private Batch<T, U> batch;
+        private ScheduledFuture<?> lingerTimer;
+
+        protected BatchingQueue(BatchInvokeFunc<T, U> batchInvokeFunc, ThreadPool threadPool, int capacity,
+                                int maxBatchSize, long maxLinger, TimeUnit unit) {
+            this.threadPool = threadPool;
+            this.maxBatchSize = maxBatchSize;
+            this.maxLinger = maxLinger;
+            this.unit = unit;
+            this.queue = new Queue<Batch<T, U>, List<U>>("batching-queue-" + threadPool.queueSequence.incrementAndGet(),
+                batch -> batchInvokeFunc.accept(batch.params), threadPool, capacity)
+                .resultSink(new ResultSink<Batch<T, U>, List<U>>() {
+                    @Override
+                    public void onResult(Batch<T, U> batch, List<U> results) {
+                        batch.complete(results);
+                    }
+
+                    @Override
+                    public void onError(Batch<T, U> batch, Throwable throwable) {
+                        batch.completeExceptionally(throwable);
+                    }
+                });
+        }
+
+        public BatchingQueue<T, U> timeout(long timeout, TimeUnit timeUnit) {
+            this.queue.timeout(timeout, timeUnit);
+            return this;
+        }
+
+        public BatchingQueue<T, U> exceptionHandler(Runnable runnable) {
+            this.queue.exceptionHandler(runnable);
+            return this;
+        }
+
+        /**
+         * blocks while the number of batches in flight has reached the capacity
+         *
+         * @param param
+         * @return completes with the result of this param once its batch has been invoked
+         */
+        public CompletableFuture<U> enqueue(T param) {
+            CompletableFuture<U> future = new CompletableFuture<>();
+            Batch<T, U> full = null;
+
+            synchronized (this) {
+                if (this.batch == null) {
+                    Batch<T, U> armed = new Batch<>(maxBatchSize);
+                    this.batch = armed;
+                    // enqueue may block for a free slot, which the workers of the pool must not do
+                    this.lingerTimer = this.threadPool.scheduler.schedule(
+                        () -> this.threadPool.delivery.execute(() -> flush(armed)), maxLinger, unit);
+                }
+
+                this.batch.add(param, future);
+
+                if (this.batch.size() >= maxBatchSize) {
+                    full = takeBatch();
+                }
+            }
+
+            if (full != null) {
+                this.queue.enqueue(full);
+            }
+
+            return future;
+        }
+
+        /**
+         * invoke the pending params now, without waiting for the batch to be full
+         */
+        public void flush() {
+            Batch<T, U> batch;
+            synchronized (this) {
+                batch = takeBatch();
+            }
+
+            if (batch != null) {
+                this.queue.enqueue(batch);
+            }
+        }
+
+        /**
+         * flush of the linger timer, unless the batch it was armed for has already been taken, by a flush or
+         * because it was full, in which case the current batch keeps lingering
+         */
+        private void flush(Batch<T, U> armed) {
+            Batch<T, U> batch;
+            synchronized (this) {
+                if (this.batch != armed) {
+                    return;
+                }
+                batch = takeBatch();
+            }
+
+            this.queue.enqueue(batch);
+        }
+
+        private Batch<T, U> takeBatch() {
+            Batch<T, U> batch = this.batch;
+            this.batch = null;
+
+            if (this.lingerTimer != null) {
+                this.lingerTimer.cancel(false);
+                this.lingerTimer = null;
+            }
+
+            return batch;
+        }
+
+        public void waitForTermination() {
+            waitForTermination(false);
+        }
+
+        public void waitForTermination(boolean ignoreException) {
+            flush();
+            this.queue.waitForTermination(ignoreException);
+        }
+
+        public void cancelAll() {
+            Batch<T, U> batch;
+            synchronized (this) {
+                batch = takeBatch();
+            }
+
+            if (batch != null) {
+                batch.futures.forEach(future -> future.cancel(true));
+            }
+
+            this.queue.cancelAll();
+        }
+    }
+
+    static class Batch<T, U> {
+        private final List<T> params;
+        private final List<CompletableFuture<U>> futures;
+
+        Batch(int capacity) {
+            this.params = new ArrayList<>(capacity);
+            this.futures = new ArrayList<>(capacity);
+        }
+
+        void add(T param, CompletableFuture<U> future) {
+            params.add(param);
+            futures.add(future);
+        }
+
+        int size() {
+            return params.size();
+        }
+
+        void complete(List<U> results) {
+            if (results == null || results.size() != futures.size()) {
+                completeExceptionally(new IllegalStateException("expected " + futures.size() + " results, got "
+                    + (results == null ? null : results.size())));
+                return;
+            }
+
+            for (int i = 0; i < futures.size(); ++i) {
+                futures.get(i).complete(results.get(i));
+            }
+        }
+
+        void completeExceptionally(Throwable throwable) {
+            futures.forEach(future -> future.completeExceptionally(throwable));
+        }
     }
 
     /**
      * A thread pool may have multiple queues which controls how many concurrent threads are allowed to execute within a queue context
+     * <p>
+     * Results are kept for {@link #waitForResults()} unless a {@link ResultSink} is configured or retaining is
+     * turned off, in which case the memory used by the queue is bounded by its capacity.
+     * {@link #enqueue(Object)} may be called from several threads.
      *
      * @param <T>
      * @param <U>
      */
     public static class Queue<T, U> {
+        private final String name;
+        private final InvokeFunc<T, U> invokeFunc;
+        private final ThreadPool threadPool;
+        private final TaskMetrics metrics = new TaskMetrics();
+        /**
+         * one permit per task in flight, enqueue blocks when all of them are taken
+         */
+        private final ResizableSemaphore permits;
+        /**
+         * tasks in flight, so that they can be cancelled
+         */
+        private final Set<CompletableFuture<U>> inFlight = ConcurrentHashMap.newKeySet();
         /**
-         * store all the futures and arguments
+         * futures in submission order, only filled when results are retained
          */
-        private List<FutureAndParam<T, U>> futureAndParams = new ArrayList<>();
-        private InvokeFunc<T, U> invokeFunc;
-        private ThreadPool threadPool;
-        private LinkedBlockingQueue queue;
-        private long timeout;
-        private TimeUnit timeUnit;
-        private Runnable exceptionHandler;
-        private boolean isBlocked = false;
+        private final ConcurrentLinkedQueue<CompletableFuture<U>> retained = new ConcurrentLinkedQueue<>();
+        private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+        /**
+         * number of tasks in flight, also the monitor waited on by waitForTermination
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        /**
+         * completed tasks waiting to be handed to the result sink, by one delivery thread at a time
+         */
+        private final ConcurrentLinkedQueue<Runnable> deliveries = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean isDelivering = new AtomicBoolean();
+        private volatile ResultSink<T, U> resultSink;
+        private volatile ConcurrencyLimit concurrencyLimit;
+        private volatile boolean retainResults = true;
+        private volatile long timeout;
+        private volatile TimeUnit timeUnit;
+        private volatile Runnable exceptionHandler;
+        private volatile boolean isBlocked = false;
+        private volatile boolean isClosed = false;
+        private final AtomicBoolean isCompleted = new AtomicBoolean();
 
-        protected Queue(InvokeFunc<T, U> invokeFunc, ThreadPool threadPool, int capacity) {
+        protected Queue(String name, InvokeFunc<T, U> invokeFunc, ThreadPool threadPool, int capacity) {
+            this.name = name;
             this.invokeFunc = invokeFunc;
             this.threadPool = threadPool;
-            this.queue = new LinkedBlockingQueue(capacity);
+            this.permits = new ResizableSemaphore(capacity);
             this.timeout = Long.MAX_VALUE;
             this.timeUnit = TimeUnit.SECONDS;
             this.exceptionHandler = null;
         }
 
-        public Queue timeout(long timeout, TimeUnit timeUnit) {
+        /**
+         * a task still running after the timeout is reported as failed with a TimeoutException, it keeps its
+         * slot until it returns
+         *
+         * @param timeout
+         * @param timeUnit
+         * @return
+         */
+        public Queue<T, U> timeout(long timeout, TimeUnit timeUnit) {
             this.timeout = timeout;
             this.timeUnit = timeUnit;
 
             return this;
         }
 
-        public Queue exceptionHandler(Runnable runnable) {
+        public Queue<T, U> exceptionHandler(Runnable runnable) {
             this.exceptionHandler = runnable;
             return this;
         }
 
+        /**
+         * let the limit decide the capacity of the queue at runtime from the latency of the tasks, failures
+         * and timeouts (see {@link #timeout(long, TimeUnit)}) count as drops; a task which timed out keeps its
+         * slot until it returns
+         *
+         * @param concurrencyLimit
+         * @return
+         */
+        public Queue<T, U> adaptiveLimit(ConcurrencyLimit concurrencyLimit) {
+            this.concurrencyLimit = concurrencyLimit;
+            this.permits.setLimit(Math.max(1, concurrencyLimit.getLimit()));
+            return this;
+        }
+
+        /**
+         * @return current capacity
+         */
+        public int getCapacity() {
+            return permits.getLimit();
+        }
+
+        /**
+         * deliver results to the sink as they complete, they are no longer kept for {@link #waitForResults()}
+         *
+         * @param resultSink
+         * @return
+         */
+        public Queue<T, U> resultSink(ResultSink<T, U> resultSink) {
+            this.resultSink = resultSink;
+            this.retainResults = false;
+            return this;
+        }
+
+        /**
+         * @param retainResults false if nobody calls {@link #waitForResults()}, to keep memory use constant
+         * @return
+         */
+        public Queue<T, U> retainResults(boolean retainResults) {
+            this.retainResults = retainResults;
+            return this;
+        }
+
+        /**
+         * blocks while the number of tasks in flight has reached the capacity
+         *
+         * @param param
+         */
         @SneakyThrows
         public void enqueue(T param) {
             if (isBlocked) {
                 return;
             }
 
-            this.queue.put(param);
+            if (isClosed) {
+                throw new IllegalStateException("queue has been closed");
+            }
 
-            CompletableFuture<U> future = this.threadPool.invoke(() -> invokeFunc.accept(param))
-                .orTimeout(timeout, timeUnit)
-                .thenApply(u -> {
-                    dequeue(param);
-                    return u;
-                })
-                .exceptionally(throwable -> {
-                    dequeue(param);
+            long enqueuedAt = System.nanoTime();
+            this.permits.acquire();
+            long acquiredAt = System.nanoTime();
+            int concurrency = this.pending.incrementAndGet();
 
-                    if (exceptionHandler != null) {
-                        exceptionHandler.run();
+            /**
+             * the permit is released once the task has returned and its result has been handled, a timeout only
+             * reports the result early, the task keeps its permit while it still runs
+             */
+            AtomicInteger stages = new AtomicInteger(2);
+            Runnable stageDone = () -> {
+                if (stages.decrementAndGet() == 0) {
+                    release();
+                }
+            };
+
+            CompletableFuture<U> future;
+            try {
+                future = this.threadPool.invoke(() -> {
+                    long startedAt = metrics.started(enqueuedAt);
+                    boolean success = false;
+
+                    try {
+                        U result = invokeFunc.accept(param);
+                        success = true;
+                        return result;
+                    } finally {
+                        metrics.finished(startedAt, success);
+                        stageDone.run();
                     }
+                });
+            } catch (RuntimeException e) {
+                release();
+                throw e;
+            }
 
-                    throw new RuntimeException(throwable);
+            this.inFlight.add(future);
+            if (retainResults) {
+                this.retained.add(future);
+            }
+
+            if (timeout != Long.MAX_VALUE) {
+                future.orTimeout(timeout, timeUnit);
+            }
+
+            // runs on the thread which completed the future, a pool worker or the timer of orTimeout
+            future.whenComplete((result, throwable) -> {
+                try {
+                    sample(acquiredAt, concurrency, throwable != null);
+                } finally {
+                    deliver(() -> {
+                        try {
+                            complete(future, param, result, throwable);
+                        } finally {
+                            stageDone.run();
+                        }
+                    });
+                }
+            });
+        }
+
+        private void sample(long acquiredAt, int concurrency, boolean dropped) {
+            ConcurrencyLimit limit = this.concurrencyLimit;
+            if (limit == null) {
+                return;
+            }
+
+            int newLimit = Math.max(1, limit.onSample(System.nanoTime() - acquiredAt, concurrency, dropped));
+            if (newLimit != this.permits.getLimit()) {
+                this.permits.setLimit(newLimit);
+            }
+        }
+
+        private void complete(CompletableFuture<U> future, T param, U result, Throwable throwable) {
+            this.inFlight.remove(future);
+
+            ResultSink<T, U> sink = this.resultSink;
+            if (throwable == null) {
+                if (sink != null) {
+                    sink.onResult(param, result);
+                }
+                return;
+            }
+
+            if (throwable instanceof CompletionException && throwable.getCause() != null) {
+                throwable = throwable.getCause();
+            }
+
+            this.firstError.compareAndSet(null, throwable);
+
+            if (exceptionHandler != null) {
+                exceptionHandler.run();
+            }
+
+            if (sink != null) {
+                sink.onError(param, throwable);
+            }
+        }
+
+        /**
+         * without a sink the delivery only updates the queue and runs at once, otherwise it is queued for the
+         * delivery thread, as the sink may block until its consumer catches up
+         */
+        private void deliver(Runnable delivery) {
+            if (this.resultSink == null) {
+                delivery.run();
+                return;
+            }
+
+            this.deliveries.add(delivery);
+            drainDeliveries();
+        }
+
+        private void drainDeliveries() {
+            if (this.deliveries.isEmpty() || !this.isDelivering.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                this.threadPool.delivery.execute(() -> {
+                    try {
+                        Runnable delivery;
+                        while ((delivery = this.deliveries.poll()) != null) {
+                            try {
+                                delivery.run();
+                            } catch (RuntimeException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    } finally {
+                        this.isDelivering.set(false);
+                    }
+
+                    // deliveries queued after the last poll
+                    drainDeliveries();
                 });
+            } catch (RejectedExecutionException e) {
+                this.isDelivering.set(false);
+                throw e;
+            }
+        }
+
+        private void release() {
+            this.permits.release();
+
+            if (this.pending.decrementAndGet() == 0) {
+                synchronized (this.pending) {
+                    this.pending.notifyAll();
+                }
+
+                if (isClosed) {
+                    signalCompleted();
+                }
+            }
+        }
+
+        private void signalCompleted() {
+            ResultSink<T, U> sink = this.resultSink;
+            if (sink != null && this.isCompleted.compareAndSet(false, true)) {
+                deliver(sink::onComplete);
+            }
+        }
+
+        /**
+         * no more params will be enqueued, the result sink is notified once the tasks in flight complete
+         *
+         * @return
+         */
+        public Queue<T, U> close() {
+            this.isClosed = true;
+
+            if (this.pending.get() == 0) {
+                signalCompleted();
+            }
+
+            return this;
+        }
+
+        /**
+         * results in completion order, as they come.
+         * <p>
+         * Must be called before enqueueing and consumed by another thread than the producer, the iteration
+         * ends after {@link #close()} once every task has completed. A failed task throws RuntimeException
+         * from {@link Iterator#next()}.
+         *
+         * @param bufferSize number of completed results waiting for the consumer, delivery blocks when it is full
+         * @return
+         */
+        public Iterator<U> iterator(int bufferSize) {
+            return iterator(bufferSize, false);
+        }
+
+        /**
+         * @param bufferSize
+         * @param ignoreException skip failed tasks instead of throwing
+         * @return
+         * @see #iterator(int)
+         */
+        public Iterator<U> iterator(int bufferSize, boolean ignoreException) {
+            ResultChannel<T, U> channel = new ResultChannel<>(bufferSize, ignoreException);
+            resultSink(channel);
+            return channel;
+        }
 
-            futureAndParams.add(new FutureAndParam<>(future, param));
+        /**
+         * @param bufferSize
+         * @param ignoreException
+         * @return
+         * @see #iterator(int)
+         */
+        public Stream<U> stream(int bufferSize, boolean ignoreException) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                iterator(bufferSize, ignoreException), Spliterator.ORDERED), false);
+        }
+
+        /**
+         * results in completion order for reactive consumers, the publisher completes after {@link #close()}
+         * once every task has completed, and completes exceptionally on the first failed task.
+         * <p>
+         * Subscribers must subscribe before enqueueing, delivery blocks while any subscriber's buffer is full.
+         * null results are skipped.
+         *
+         * @param bufferSize buffer of each subscriber
+         * @return
+         */
+        public Flow.Publisher<U> publisher(int bufferSize) {
+            SubmissionPublisher<U> publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), bufferSize);
+
+            resultSink(new ResultSink<T, U>() {
+                @Override
+                public void onResult(T param, U result) {
+                    if (result != null && !publisher.isClosed()) {
+                        publisher.submit(result);
+                    }
+                }
+
+                @Override
+                public void onError(T param, Throwable throwable) {
+                    publisher.closeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    publisher.close();
+                }
+            });
+
+            return publisher;
+        }
+
+        @SneakyThrows
+        private void awaitIdle() {
+            synchronized (this.pending) {
+                while (this.pending.get() > 0) {
+                    this.pending.wait();
+                }
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * wait time includes the time spent blocked in {@link #enqueue(Object)} for a free slot
+         *
+         * @return
+         */
+        public TaskMetrics getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * publish the metrics of this queue, tagged with {@code pool} and {@code queue}
+         *
+         * @param registry
+         */
+        public void bindTo(MetricsRegistry registry) {
+            metrics.bindTo(registry, "threadpool.queue", "pool", threadPool.getName(), "queue", name);
+            registry.gauge("threadpool.queue.depth", this::size, "pool", threadPool.getName(), "queue", name);
+            registry.gauge("threadpool.queue.capacity", this::getCapacity, "pool", threadPool.getName(), "queue", name);
         }
 
         public void block(boolean isBlocked) {
             this.isBlocked = isBlocked;
         }
 
-        public void dequeue(T param) {
-            this.queue.remove(param);
+        /**
+         * @return number of tasks in flight
+         */
+        public int size() {
+            return this.pending.get();
         }
 
         public void waitForTermination() {
-            waitForResults(false);
+            waitForTermination(false);
         }
 
         public void waitForTermination(boolean ignoreException) {
             try {
-                futureAndParams.forEach(param -> {
-                    try {
-                        param.getFuture().get();
-                    } catch (Exception e) {
-                        if (!ignoreException) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                });
+                awaitIdle();
+
+                Throwable throwable = this.firstError.get();
+                if (throwable != null && !ignoreException) {
+                    throw new RuntimeException(throwable);
+                }
             } finally {
-                this.queue.clear();
-                this.queue = null;
+                this.retained.clear();
+                this.firstError.set(null);
             }
         }
 
@@ -213,13 +1016,18 @@ public class ThreadPool {
             return waitForResults(false);
         }
 
+        /**
+         * @param ignoreException
+         * @return results in submission order, only the ones of successful tasks if ignoreException is true
+         */
         public List<U> waitForResults(boolean ignoreException) {
             List<U> results = new ArrayList<U>();
 
             try {
-                for (FutureAndParam<T, U> param : futureAndParams) {
+                CompletableFuture<U> future;
+                while ((future = this.retained.poll()) != null) {
                     try {
-                        results.add(param.getFuture().get());
+                        results.add(future.get());
                     } catch (Exception e) {
                         if (!ignoreException) {
                             throw new RuntimeException(e);
@@ -227,24 +1035,18 @@ public class ThreadPool {
                     }
                 }
 
+                awaitIdle();
                 return results;
             } finally {
-                this.queue.clear();
-                this.queue = null;
+                this.retained.clear();
+                this.firstError.set(null);
             }
         }
 
         public void cancelAll() {
-            for (FutureAndParam<T, U> param : futureAndParams) {
-                param.getFuture().cancel(true);
+            for (CompletableFuture<U> future : this.inFlight) {
+                future.cancel(true);
             }
         }
     }
-
-    @Data
-    @AllArgsConstructor
-    static class FutureAndParam<T, U> {
-        private CompletableFuture<U> future;
-        private T param;
-    }
 }
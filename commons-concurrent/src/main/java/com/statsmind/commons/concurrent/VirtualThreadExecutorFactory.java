@@ -0,0 +1,26 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs every task on its own virtual thread on JDK 21+, falls back to the work-stealing pool on older JDKs.
+ * <p>
+ * Blocking calls (JDBC, HTTP) no longer hold a platform thread, so the number of concurrent tasks is only
+ * limited by {@link ThreadPool#maxPendingTasks(int)} and by the capacity of each {@link ThreadPool.Queue}.
+ */
+final class VirtualThreadExecutorFactory implements ExecutorFactory {
+    static final VirtualThreadExecutorFactory INSTANCE = new VirtualThreadExecutorFactory();
+
+    private VirtualThreadExecutorFactory() {
+
+    }
+
+    @Override
+    public ExecutorService newExecutor(String name, int parallelism, int maximumPoolSize) {
+        if (VirtualThreads.isSupported()) {
+            return VirtualThreads.newExecutor(name);
+        }
+
+        return ExecutorFactory.workStealing().newExecutor(name, parallelism, maximumPoolSize);
+    }
+}
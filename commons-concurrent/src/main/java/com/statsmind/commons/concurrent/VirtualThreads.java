@@ -0,0 +1,21 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Virtual threads are not available before JDK 21, see src/main/java21 for the real implementation
+ * which is packaged into META-INF/versions/21 of the multi-release jar
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+
+    }
+
+    static boolean isSupported() {
+        return false;
+    }
+
+    static ExecutorService newExecutor(String name) {
+        throw new UnsupportedOperationException("virtual threads require JDK 21+");
+    }
+}
@@ -0,0 +1,32 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+final class WorkStealingExecutorFactory implements ExecutorFactory {
+    static final WorkStealingExecutorFactory INSTANCE = new WorkStealingExecutorFactory();
+
+    private WorkStealingExecutorFactory() {
+
+    }
+
+    @Override
+    public ExecutorService newExecutor(String name, int parallelism, int maximumPoolSize) {
+        ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(name + "-" + thread.getPoolIndex());
+            return thread;
+        };
+
+        /**
+         * asyncMode = true, tasks submitted from outside are never joined, so FIFO order suits them better.
+         * when all threads are blocked the pool may grow up to maximumPoolSize, and keeps running
+         * with what it has instead of rejecting once that limit is reached.
+         */
+        return new ForkJoinPool(parallelism, threadFactory, null, true,
+            parallelism, Math.max(parallelism, maximumPoolSize), 1,
+            pool -> true, 60, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,280 @@
+package com.statsmind.commons.concurrent.lock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named locks within one JVM.
+ * <p>
+ * Lock names are spread over segments, each with its own monitor, so locks of different entities do not
+ * contend with each other. A lock only lives in its segment while somebody holds it or waits for it, idle
+ * locks are evicted at once, so millions of distinct names do not leak memory.
+ * <p>
+ * {@link LockType#Reentrant}, {@link LockType#Fair} and {@link LockType#Write} are exclusive and share
+ * the same state for a given name, {@link LockType#Fair} waiters are served in arrival order.
+ * {@link LockType#Read} is shared with other readers. All of them are reentrant for the owning thread,
+ * and a thread holding the exclusive lock may also take the read lock. A holder whose lease has expired
+ * loses the lock to the next waiter, its release is then ignored.
+ */
+public class LocalLockFactory implements LockFactory {
+    private final Segment[] segments;
+    private final int mask;
+
+    public LocalLockFactory() {
+        this(Runtime.getRuntime().availableProcessors() * 16);
+    }
+
+    /**
+     * @param concurrencyLevel number of segments, rounded up to a power of two
+     */
+    public LocalLockFactory(int concurrencyLevel) {
+        int size = Integer.highestOneBit(Math.max(1, concurrencyLevel - 1)) << 1;
+
+        this.segments = new Segment[size];
+        for (int i = 0; i < size; ++i) {
+            this.segments[i] = new Segment();
+        }
+        this.mask = size - 1;
+    }
+
+    @Override
+    public Lock getLock(LockInfo lockInfo) {
+        if (lockInfo.getName() == null) {
+            throw new IllegalArgumentException("lock name must not be null");
+        }
+
+        return new LocalLock(this, lockInfo);
+    }
+
+    /**
+     * @return number of locks currently held or waited for
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String name) {
+        int h = name.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    private static final class Segment {
+        private final HashMap<String, LockEntry> entries = new HashMap<>();
+
+        synchronized LockEntry retain(String name) {
+            LockEntry entry = entries.computeIfAbsent(name, LockEntry::new);
+            entry.refCount++;
+            return entry;
+        }
+
+        synchronized void release(LockEntry entry) {
+            entry.refCount--;
+            evictIfIdle(entry);
+        }
+
+        synchronized void evictIfIdle(LockEntry entry) {
+            if (entry.refCount == 0 && entry.isIdle() && entries.get(entry.name) == entry) {
+                entries.remove(entry.name);
+            }
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * state of one lock name, guarded by its own monitor, except refCount which is guarded by the segment
+     */
+    private static final class LockEntry {
+        private final String name;
+        /**
+         * number of threads acquiring this lock right now
+         */
+        private int refCount;
+        /**
+         * exclusive holders (all of them belong to {@link #owner}) and shared holders, with their lease deadline
+         */
+        private final Map<LocalLock, Long> exclusive = new HashMap<>(2);
+        private final Map<LocalLock, Long> shared = new HashMap<>(2);
+        private final ArrayDeque<LocalLock> fairQueue = new ArrayDeque<>();
+        private Thread owner;
+
+        LockEntry(String name) {
+            this.name = name;
+        }
+
+        synchronized boolean acquire(LocalLock lock, long waitNanos, long leaseNanos) throws InterruptedException {
+            long deadline = waitNanos < 0 ? Long.MAX_VALUE : System.nanoTime() + waitNanos;
+            boolean queued = false;
+
+            try {
+                for (; ; ) {
+                    long now = System.nanoTime();
+                    long nextExpiry = prune(now);
+
+                    if (lock.type == LockType.Fair && !queued) {
+                        fairQueue.add(lock);
+                        queued = true;
+                    }
+
+                    if (canAcquire(lock)) {
+                        grant(lock, leaseNanos > 0 ? now + leaseNanos : Long.MAX_VALUE);
+                        return true;
+                    }
+
+                    if (now - deadline >= 0) {
+                        return false;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.min(deadline, nextExpiry) - now);
+                }
+            } finally {
+                if (queued) {
+                    fairQueue.remove(lock);
+                    notifyAll();
+                }
+            }
+        }
+
+        private boolean canAcquire(LocalLock lock) {
+            Thread current = Thread.currentThread();
+
+            if (lock.type == LockType.Read) {
+                return owner == null || owner == current;
+            }
+
+            if (owner == current) {
+                return true;
+            }
+
+            if (lock.type == LockType.Fair && fairQueue.peek() != lock) {
+                return false;
+            }
+
+            return owner == null && shared.isEmpty();
+        }
+
+        private void grant(LocalLock lock, long leaseDeadline) {
+            Map<LocalLock, Long> holders = lock.type == LockType.Read ? shared : exclusive;
+            holders.merge(lock, leaseDeadline, Math::max);
+
+            if (lock.type != LockType.Read) {
+                owner = Thread.currentThread();
+            }
+
+            lock.holds++;
+            lock.entry = this;
+        }
+
+        synchronized boolean release(LocalLock lock) {
+            Map<LocalLock, Long> holders = lock.type == LockType.Read ? shared : exclusive;
+            if (lock.entry != this || !holders.containsKey(lock)) {
+                return false;
+            }
+
+            if (--lock.holds == 0) {
+                holders.remove(lock);
+                lock.entry = null;
+
+                if (exclusive.isEmpty()) {
+                    owner = null;
+                }
+            }
+
+            notifyAll();
+            return true;
+        }
+
+        synchronized boolean isIdle() {
+            prune(System.nanoTime());
+            return exclusive.isEmpty() && shared.isEmpty() && fairQueue.isEmpty();
+        }
+
+        /**
+         * drop the holders whose lease has expired
+         *
+         * @param now
+         * @return the earliest lease deadline of the remaining holders
+         */
+        private long prune(long now) {
+            long nextExpiry = Math.min(prune(exclusive, now), prune(shared, now));
+
+            if (exclusive.isEmpty()) {
+                owner = null;
+            }
+
+            return nextExpiry;
+        }
+
+        private long prune(Map<LocalLock, Long> holders, long now) {
+            long nextExpiry = Long.MAX_VALUE;
+
+            for (Iterator<Map.Entry<LocalLock, Long>> it = holders.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<LocalLock, Long> holder = it.next();
+                long leaseDeadline = holder.getValue();
+
+                if (leaseDeadline != Long.MAX_VALUE && now - leaseDeadline >= 0) {
+                    holder.getKey().holds = 0;
+                    holder.getKey().entry = null;
+                    it.remove();
+                } else {
+                    nextExpiry = Math.min(nextExpiry, leaseDeadline);
+                }
+            }
+
+            return nextExpiry;
+        }
+    }
+
+    private static final class LocalLock implements Lock {
+        private final LocalLockFactory factory;
+        private final String name;
+        private final LockType type;
+        private final long waitNanos;
+        private final long leaseNanos;
+        /**
+         * guarded by the monitor of the entry
+         */
+        private int holds;
+        private volatile LockEntry entry;
+
+        LocalLock(LocalLockFactory factory, LockInfo lockInfo) {
+            this.factory = factory;
+            this.name = lockInfo.getName();
+            this.type = lockInfo.getType() == null ? LockType.Reentrant : lockInfo.getType();
+            this.waitNanos = lockInfo.getWaitTime() < 0 ? -1 : TimeUnit.SECONDS.toNanos(lockInfo.getWaitTime());
+            this.leaseNanos = lockInfo.getLeaseTime() <= 0 ? 0 : TimeUnit.SECONDS.toNanos(lockInfo.getLeaseTime());
+        }
+
+        @Override
+        public boolean acquire() {
+            Segment segment = factory.segmentFor(name);
+            LockEntry entry = segment.retain(name);
+
+            try {
+                return entry.acquire(this, waitNanos, leaseNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                segment.release(entry);
+            }
+        }
+
+        @Override
+        public void release() {
+            LockEntry entry = this.entry;
+            if (entry != null && entry.release(this)) {
+                factory.segmentFor(name).evictIfIdle(entry);
+            }
+        }
+    }
+}
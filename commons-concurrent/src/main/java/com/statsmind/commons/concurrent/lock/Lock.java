@@ -8,4 +8,9 @@ public interface Lock extends AutoCloseable {
     boolean acquire();
 
     void release();
+
+    @Override
+    default void close() {
+        release();
+    }
 }
@@ -0,0 +1,22 @@
+package com.statsmind.commons.concurrent.lock;
+
+public interface LockFactory {
+
+    /**
+     * a new handle on the lock named by lockInfo, nothing is acquired until {@link Lock#acquire()}
+     *
+     * @param lockInfo
+     * @return
+     */
+    Lock getLock(LockInfo lockInfo);
+
+    /**
+     * reentrant lock which waits forever and has no lease
+     *
+     * @param name
+     * @return
+     */
+    default Lock getLock(String name) {
+        return getLock(new LockInfo().setType(LockType.Reentrant).setName(name).setWaitTime(-1).setLeaseTime(0));
+    }
+}
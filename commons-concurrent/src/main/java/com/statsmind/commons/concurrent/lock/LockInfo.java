@@ -8,6 +8,12 @@ import lombok.experimental.Accessors;
 public class LockInfo {
     private LockType type;
     private String name;
+    /**
+     * 获取锁的最长等待时间，单位秒，0 表示不等待，负数表示一直等待
+     */
     private long waitTime;
+    /**
+     * 持有锁的租期，单位秒，到期后自动释放，0 或负数表示不自动释放
+     */
     private long leaseTime;
 }
@@ -0,0 +1,21 @@
+package com.statsmind.commons.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * JDK 21+ version, one new virtual thread for every task
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+
+    }
+
+    static boolean isSupported() {
+        return true;
+    }
+
+    static ExecutorService newExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-virtual-", 0).factory());
+    }
+}
@@ -0,0 +1,115 @@
+package com.statsmind.commons;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe dictionary encoding: every distinct value gets the next code, 0, 1, 2...
+ * <p>
+ * Usage:
+ * <pre>
+ * ConcurrentDictionary&lt;String&gt; categories = new ConcurrentDictionary&lt;&gt;();
+ * int code = categories.encode("books");
+ * String category = categories.decode(code);
+ * </pre>
+ * <p>
+ * Both directions are O(1): values to codes through a ConcurrentHashMap, codes to values through a dense
+ * array indexed by code. Lookups never lock, new values are appended under a lock. Codes are never reused,
+ * so with a maximum size the dictionary stops growing once full instead of evicting, otherwise a code held by
+ * a caller would decode to another value.
+ *
+ * @param <T> type of the values, must not be null
+ */
+public class ConcurrentDictionary<T> {
+    private final ConcurrentHashMap<T, Integer> codes;
+    private final int maximumSize;
+    /**
+     * values by code, replaced by a larger copy when full; a code is published in codes after its value is
+     * stored here
+     */
+    private volatile Object[] values;
+    /**
+     * guarded by this
+     */
+    private int size;
+
+    public ConcurrentDictionary() {
+        this(16, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param initialCapacity
+     * @param maximumSize     number of values beyond which {@link #encode} returns -1 for new values
+     */
+    public ConcurrentDictionary(int initialCapacity, int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+
+        this.codes = new ConcurrentHashMap<>(Math.max(16, initialCapacity));
+        this.values = new Object[Math.max(16, Math.min(initialCapacity, maximumSize))];
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @param value
+     * @return the code of the value, added if new; -1 if new and the dictionary is full
+     */
+    public int encode(T value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+
+        synchronized (this) {
+            code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (size >= maximumSize) {
+                return -1;
+            }
+
+            Object[] current = values;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, (int) Math.min(maximumSize, current.length * 2L));
+            }
+            current[size] = value;
+            values = current;
+
+            codes.put(value, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @param value
+     * @return the code of the value, -1 if not in the dictionary
+     */
+    public int getCode(T value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @param code
+     * @return the value of the code, null if no value has it
+     */
+    @SuppressWarnings("unchecked")
+    public T decode(int code) {
+        Object[] current = values;
+        return code < 0 || code >= current.length ? null : (T) current[code];
+    }
+
+    public boolean contains(T value) {
+        return codes.containsKey(value);
+    }
+
+    public int size() {
+        return codes.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+}
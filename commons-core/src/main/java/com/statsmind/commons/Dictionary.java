@@ -1,19 +1,49 @@
 package com.statsmind.commons;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
+/**
+ * Dictionary encoding for a single thread, see {@link ConcurrentDictionary} for a thread-safe one.
+ * <p>
+ * Values added with {@link #add} are also indexed by code, so {@link #getKeyByValue} is O(1) for them.
+ */
 public class Dictionary<T> extends HashMap<T, Integer> {
+    /**
+     * keys by code, of the entries created by add
+     */
+    private final List<T> keys = new ArrayList<>();
+
     public int add(T t) {
         if (containsKey(t)) {
             return get(t);
         } else {
             int size = size();
             put(t, size);
+
+            if (size < keys.size()) {
+                keys.set(size, t);
+            } else {
+                while (keys.size() < size) {
+                    keys.add(null);
+                }
+                keys.add(t);
+            }
             return size;
         }
     }
 
     public T getKeyByValue(int v) {
+        if (v >= 0 && v < keys.size()) {
+            T key = keys.get(v);
+            Integer code = key == null ? null : get(key);
+            if (code != null && code == v) {
+                return key;
+            }
+        }
+
+        // entries put or removed without add
         for (T key : keySet()) {
             if (get(key) == v) {
                 return key;
@@ -22,4 +52,10 @@ public class Dictionary<T> extends HashMap<T, Integer> {
 
         return null;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void clear() {
+        super.clear();
+        keys.clear();
+    }
+}
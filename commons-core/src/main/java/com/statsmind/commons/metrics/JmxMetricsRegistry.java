@@ -0,0 +1,155 @@
+package com.statsmind.commons.metrics;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Publishes metrics as MBeans of the platform MBean server, one per metric.
+ * <p>
+ * The ObjectName is {@code <domain>:name=<name>,<tag>=<value>...}, e.g.
+ * {@code com.statsmind.metrics:name=cache.hits,cache=users}. A gauge has the attribute {@code Value}, a counter
+ * {@code Count}, a timer {@code Count}, {@code TotalSeconds}, {@code MeanSeconds}, {@code MaxSeconds} and
+ * {@code P50Seconds} to {@code P999Seconds}. Registering a metric again replaces the previous MBean.
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+    public static final String DEFAULT_DOMAIN = "com.statsmind.metrics";
+
+    private final MBeanServer server;
+    private final String domain;
+
+    public JmxMetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+    }
+
+    public JmxMetricsRegistry(MBeanServer server, String domain) {
+        this.server = server;
+        this.domain = domain;
+    }
+
+    @Override
+    public void gauge(String name, DoubleSupplier value, String... tags) {
+        Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+        attributes.put("Value", value::getAsDouble);
+        register(name, tags, attributes);
+    }
+
+    @Override
+    public void counter(String name, LongSupplier count, String... tags) {
+        Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+        attributes.put("Count", count::getAsLong);
+        register(name, tags, attributes);
+    }
+
+    @Override
+    public void timer(String name, LatencyHistogram histogram, String... tags) {
+        Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+        attributes.put("Count", histogram::getCount);
+        attributes.put("TotalSeconds", () -> histogram.getTotal() / 1e9);
+        attributes.put("MeanSeconds", () -> histogram.getMean() / 1e9);
+        attributes.put("MaxSeconds", () -> histogram.getMax() / 1e9);
+        attributes.put("P50Seconds", () -> histogram.getValueAtPercentile(50) / 1e9);
+        attributes.put("P90Seconds", () -> histogram.getValueAtPercentile(90) / 1e9);
+        attributes.put("P99Seconds", () -> histogram.getValueAtPercentile(99) / 1e9);
+        attributes.put("P999Seconds", () -> histogram.getValueAtPercentile(99.9) / 1e9);
+        register(name, tags, attributes);
+    }
+
+    /**
+     * @param name
+     * @param tags
+     * @return name of the MBean of the metric
+     */
+    public ObjectName objectNameOf(String name, String... tags) {
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("tags must be key/value pairs");
+        }
+
+        StringBuilder objectName = new StringBuilder(domain).append(":name=").append(ObjectName.quote(name));
+        for (int i = 0; i < tags.length; i += 2) {
+            objectName.append(',').append(tags[i]).append('=').append(ObjectName.quote(tags[i + 1]));
+        }
+
+        try {
+            return new ObjectName(objectName.toString());
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private void register(String name, String[] tags, Map<String, Supplier<Object>> attributes) {
+        ObjectName objectName = objectNameOf(name, tags);
+
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new MetricMBean(name, attributes), objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register " + objectName, e);
+        }
+    }
+
+    /**
+     * read-only attributes computed on every read
+     */
+    private static final class MetricMBean implements DynamicMBean {
+        private final Map<String, Supplier<Object>> attributes;
+        private final MBeanInfo info;
+
+        MetricMBean(String name, Map<String, Supplier<Object>> attributes) {
+            this.attributes = attributes;
+
+            MBeanAttributeInfo[] attributeInfos = attributes.entrySet().stream()
+                .map(entry -> new MBeanAttributeInfo(entry.getKey(),
+                    entry.getKey().equals("Count") ? "long" : "double", entry.getKey(), true, false, false))
+                .toArray(MBeanAttributeInfo[]::new);
+            this.info = new MBeanInfo(getClass().getName(), name, attributeInfos, null, null, null);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Supplier<Object> value = attributes.get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value.get();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String attribute : names) {
+                Supplier<Object> value = attributes.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value.get()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.statsmind.commons.metrics;
+
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Where instrumented components publish their metrics, see {@link MicrometerMetricsRegistry}.
+ * <p>
+ * Metrics are registered once and read by the registry whenever it exports them, the components only
+ * update their own counters. Tags are key/value pairs, e.g. {@code "pool", "jdbc"}.
+ */
+public interface MetricsRegistry {
+    /**
+     * @param name
+     * @param value current value, e.g. number of active threads
+     * @param tags
+     */
+    void gauge(String name, DoubleSupplier value, String... tags);
+
+    /**
+     * @param name
+     * @param count monotonically increasing count
+     * @param tags
+     */
+    void counter(String name, LongSupplier count, String... tags);
+
+    /**
+     * @param name
+     * @param histogram durations in nanoseconds
+     * @param tags
+     */
+    void timer(String name, LatencyHistogram histogram, String... tags);
+}
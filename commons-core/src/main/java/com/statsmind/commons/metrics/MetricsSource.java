@@ -0,0 +1,8 @@
+package com.statsmind.commons.metrics;
+
+/**
+ * A component which can publish its metrics
+ */
+public interface MetricsSource {
+    void bindTo(MetricsRegistry registry);
+}
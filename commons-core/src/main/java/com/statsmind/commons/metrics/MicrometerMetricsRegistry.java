@@ -0,0 +1,68 @@
+package com.statsmind.commons.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Publishes metrics to Micrometer, micrometer-core is an optional dependency and must be on the classpath.
+ * <p>
+ * A timer becomes a Micrometer FunctionTimer plus gauges {@code <name>.percentile} tagged with
+ * {@code quantile} 0.5, 0.9, 0.99, 0.999, and a gauge {@code <name>.max}.
+ * <p>
+ * Micrometer holds the state of function meters weakly by default; the suppliers given here are usually
+ * lambdas referenced by nothing else, so every meter holds its state strongly.
+ */
+public class MicrometerMetricsRegistry implements MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final MeterRegistry meterRegistry;
+
+    public MicrometerMetricsRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void gauge(String name, DoubleSupplier value, String... tags) {
+        Gauge.builder(name, value, DoubleSupplier::getAsDouble)
+            .tags(tags)
+            .strongReference(true)
+            .register(meterRegistry);
+    }
+
+    @Override
+    public void counter(String name, LongSupplier count, String... tags) {
+        FunctionCounter.builder(name, count, LongSupplier::getAsLong)
+            .tags(tags)
+            .strongReference(true)
+            .register(meterRegistry);
+    }
+
+    @Override
+    public void timer(String name, LatencyHistogram histogram, String... tags) {
+        FunctionTimer.builder(name, histogram, LatencyHistogram::getCount, LatencyHistogram::getTotal, TimeUnit.NANOSECONDS)
+            .tags(tags)
+            .strongReference(true)
+            .register(meterRegistry);
+
+        for (double quantile : QUANTILES) {
+            Gauge.builder(name + ".percentile", histogram, h -> h.getValueAtPercentile(quantile * 100) / 1e9)
+                .tags(Tags.of(tags).and("quantile", String.valueOf(quantile)))
+                .strongReference(true)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        }
+
+        Gauge.builder(name + ".max", histogram, h -> h.getMax() / 1e9)
+            .tags(tags)
+            .strongReference(true)
+            .baseUnit("seconds")
+            .register(meterRegistry);
+    }
+}
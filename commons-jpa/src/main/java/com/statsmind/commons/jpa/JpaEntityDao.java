@@ -1,56 +1,162 @@
 package com.statsmind.commons.jpa;
 
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.Tuple;
 import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Order;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Path;
 import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.core.types.dsl.Wildcard;
 import com.querydsl.jpa.impl.JPADeleteClause;
 import com.querydsl.jpa.impl.JPAInsertClause;
 import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAUpdateClause;
+import com.statsmind.commons.concurrent.ResultSink;
+import com.statsmind.commons.concurrent.ThreadPool;
+import com.statsmind.commons.jpa.bulk.BulkMutation;
+import com.statsmind.commons.jpa.cache.EntityCache;
+import com.statsmind.commons.jpa.cache.EntityCacheRegistry;
+import com.statsmind.commons.jpa.cache.QueryCache;
+import com.statsmind.commons.jpa.page.CountMode;
+import com.statsmind.commons.jpa.page.KeysetCursor;
+import com.statsmind.commons.jpa.page.KeysetSlice;
 import lombok.Getter;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.convert.support.DefaultConversionService;
 import org.springframework.data.domain.*;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.JpaEntityInformationSupport;
 import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
 import org.springframework.data.querydsl.EntityPathResolver;
 import org.springframework.data.querydsl.SimpleEntityPathResolver;
 import org.springframework.data.repository.query.FluentQuery;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ClassUtils;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
 import java.io.Serializable;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Getter
 public class JpaEntityDao<T, ID extends Serializable> implements JpaRepository<T, ID> {
     private static final EntityPathResolver resolver = SimpleEntityPathResolver.INSTANCE;
     private static final String ID_MUST_NOT_BE_NULL = "The given id must not be null!";
+    /**
+     * parameters per statement of {@link #insertRows} by default, below the 2100 of SQL Server, the lowest
+     * limit among common drivers
+     */
+    public static final int DEFAULT_MAX_PARAMETERS = 2000;
+    /**
+     * rows per round trip of the streaming reads
+     */
+    private static final int STREAM_FETCH_SIZE = 1000;
+    /**
+     * partitions of {@link #parallelScan} read at once by default
+     */
+    private static final int DEFAULT_SCAN_CONCURRENCY = 4;
 
     private SimpleJpaRepository<T, ID> repository;
     private EntityManager em;
     private EntityPath<T> path;
     private JdbcTemplate jdbcTemplate;
+    /**
+     * same data source, with the fetch size of the streaming reads
+     */
+    private JdbcTemplate streamingJdbcTemplate;
+    private Class<T> domainClass;
+    private JpaEntityInformation<T, ?> entityInformation;
+    /**
+     * null unless the entity is annotated with {@link com.statsmind.commons.jpa.cache.CachedEntity}
+     */
+    private EntityCache<T, ID> entityCache;
+    /**
+     * null unless the entity is annotated with {@link com.statsmind.commons.jpa.cache.CachedQueries}
+     */
+    private QueryCache queryCache;
+    /**
+     * a new transaction per chunk of {@link #bulk(Predicate)}, null without a transaction manager
+     */
+    private TransactionTemplate bulkTransaction;
+    private ApplicationEventPublisher eventPublisher;
+    /**
+     * parameters per statement of {@link #insertRows}
+     */
+    private int maxParameters = DEFAULT_MAX_PARAMETERS;
 
     @Autowired
     public final void initializeContext(EntityManager entityManager, JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(Objects.requireNonNull(jdbcTemplate.getDataSource()));
+        this.streamingJdbcTemplate.setFetchSize(STREAM_FETCH_SIZE);
         this.em = entityManager;
 
         Type[] params = ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments();
         Class<T> domainClass = (Class<T>) params[0];
 
-        this.repository = new SimpleJpaRepository<T, ID>(domainClass, entityManager);
+        this.domainClass = domainClass;
+        this.entityInformation = JpaEntityInformationSupport.getEntityInformation(domainClass, entityManager);
+        this.repository = new SimpleJpaRepository<T, ID>(entityInformation, entityManager);
         this.path = this.resolver.createPath(domainClass);
+        this.entityCache = EntityCacheRegistry.register(domainClass, entityInformation);
+        this.queryCache = QueryCache.register(domainClass);
+    }
+
+    @Autowired(required = false)
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.bulkTransaction = new TransactionTemplate(transactionManager);
+        this.bulkTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Autowired(required = false)
+    public void setEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * @param maxParameters limit of parameters per statement of the database, 65535 for PostgreSQL and MySQL
+     */
+    public void setMaxParameters(int maxParameters) {
+        if (maxParameters <= 0) {
+            throw new IllegalArgumentException("maxParameters must be positive");
+        }
+        this.maxParameters = maxParameters;
     }
 
     @Override
@@ -68,9 +174,49 @@ public class JpaEntityDao<T, ID extends Serializable> implements JpaRepository<T
         return this.repository.findAll(pageable);
     }
 
+    /**
+     * with the entity cache, the cached entities are taken from it and the others fetched in one query;
+     * entities are then returned in the order of the ids, ids recently not found are not looked up again;
+     * the entities are detached, see {@link #loadDetached}
+     *
+     * @param ids
+     * @return
+     */
     @Override
     public List<T> findAllById(Iterable<ID> ids) {
-        return this.repository.findAllById(ids);
+        if (this.entityCache == null || !this.entityCache.isReadable()) {
+            return this.repository.findAllById(ids);
+        }
+
+        Map<ID, T> found = new HashMap<>(this.entityCache.getAllPresent(ids));
+
+        List<ID> missing = new ArrayList<>();
+        for (ID id : ids) {
+            if (id != null && !found.containsKey(id) && !this.entityCache.isAbsent(id)) {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long invalidation = this.entityCache.getInvalidationCount();
+            List<T> loaded = loadDetached(session -> loadAll(session, missing));
+            for (T entity : loaded) {
+                if (entity == null) {
+                    continue;
+                }
+                this.entityCache.put(entity, invalidation);
+                found.put(this.entityCache.getId(entity), entity);
+            }
+        }
+
+        List<T> entities = new ArrayList<>(found.size());
+        for (ID id : ids) {
+            T entity = id == null ? null : found.get(id);
+            if (entity != null) {
+                entities.add(entity);
+            }
+        }
+        return entities;
     }
 
     @Override
@@ -113,14 +259,167 @@ public class JpaEntityDao<T, ID extends Serializable> implements JpaRepository<T
         return this.repository.saveAll(entities);
     }
 
+    /**
+     * save entities for bulk imports: new entities are persisted, the others merged, and the persistence
+     * context is flushed every batchSize entities, each statement being sent as one JDBC batch
+     * <p>
+     * JpaEntityListener callbacks fire as with save, and the ids generated by a sequence or a table are set.
+     * Hibernate does not batch inserts of entities with IDENTITY ids. Saved entities are detached after each
+     * flush and not kept, so memory stays bounded when entities is itself streamed. Must run within a
+     * transaction.
+     *
+     * @param entities
+     * @param batchSize
+     * @return number of entities saved
+     */
+    public <S extends T> long saveAllInBatch(Iterable<S> entities, int batchSize) {
+        return this.saveAllInBatch(entities, batchSize, null);
+    }
+
+    /**
+     * save entities for bulk imports, see {@link #saveAllInBatch(Iterable, int)}
+     *
+     * @param entities
+     * @param batchSize
+     * @param onFlush   called with the saved entities after each flush, with their generated ids, before they
+     *                  are detached; null to ignore them
+     * @return number of entities saved
+     */
+    public <S extends T> long saveAllInBatch(Iterable<S> entities, int batchSize, Consumer<List<S>> onFlush) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        Session session = this.em.unwrap(Session.class);
+        Integer previousBatchSize = session.getJdbcBatchSize();
+        session.setJdbcBatchSize(batchSize);
+
+        try {
+            long saved = 0;
+            List<S> pending = new ArrayList<>(batchSize);
+
+            for (S entity : entities) {
+                S managed;
+                if (this.entityInformation.isNew(entity)) {
+                    this.em.persist(entity);
+                    managed = entity;
+                } else {
+                    managed = this.em.merge(entity);
+                }
+
+                saved++;
+                pending.add(managed);
+
+                if (pending.size() >= batchSize) {
+                    flushAndDetach(pending, onFlush);
+                }
+            }
+
+            flushAndDetach(pending, onFlush);
+            return saved;
+        } finally {
+            session.setJdbcBatchSize(previousBatchSize);
+        }
+    }
+
+    private <S> void flushAndDetach(List<S> pending, Consumer<List<S>> onFlush) {
+        this.em.flush();
+        if (onFlush != null && !pending.isEmpty()) {
+            onFlush.accept(Collections.unmodifiableList(pending));
+        }
+        pending.forEach(this.em::detach);
+        pending.clear();
+    }
+
     @Override
     public Optional<T> findById(ID id) {
-        return this.repository.findById(id);
+        if (this.entityCache == null) {
+            return this.repository.findById(id);
+        }
+
+        Objects.requireNonNull(id, ID_MUST_NOT_BE_NULL);
+        return Optional.ofNullable(this.entityCache.get(id,
+            key -> loadDetached(session -> this.domainClass.cast(session.get(this.domainClass, key)))));
+    }
+
+    /**
+     * load entities to cache with a StatelessSession, so that they are detached and do not belong to the
+     * persistence context of the caller, e.g. one opened in view or by a read-only transaction, where they
+     * would be shared while still managed; the StatelessSession runs on the connection of the caller's
+     * EntityManager if one is bound to the thread, so that a caller never waits for a second connection
+     */
+    private <R> R loadDetached(Function<StatelessSession, R> loader) {
+        SessionFactory sessionFactory = this.em.getEntityManagerFactory().unwrap(SessionFactory.class);
+
+        return onCallerConnection(connection -> {
+            StatelessSession session = connection == null
+                ? sessionFactory.openStatelessSession()
+                : sessionFactory.openStatelessSession(connection);
+            try {
+                return loader.apply(session);
+            } finally {
+                // leaves the connection of the caller open
+                session.close();
+            }
+        });
+    }
+
+    /**
+     * run the query in a short-lived read-only Session for the same reason as {@link #loadDetached}, its results
+     * are detached when it returns
+     */
+    private <R> List<R> fetchDetached(JPAQuery<R> query) {
+        SessionFactory sessionFactory = this.em.getEntityManagerFactory().unwrap(SessionFactory.class);
+
+        return onCallerConnection(connection -> {
+            Session session = connection == null
+                ? sessionFactory.openSession()
+                : sessionFactory.withOptions().connection(connection).openSession();
+            try {
+                session.setDefaultReadOnly(true);
+                return query.clone(session).fetch();
+            } finally {
+                session.close();
+            }
+        });
+    }
+
+    /**
+     * @param work receives the connection of the EntityManager bound to the thread, or null if there is none
+     */
+    private <R> R onCallerConnection(Function<Connection, R> work) {
+        EntityManager bound =
+            EntityManagerFactoryUtils.getTransactionalEntityManager(this.em.getEntityManagerFactory());
+        if (bound == null) {
+            return work.apply(null);
+        }
+
+        return bound.unwrap(Session.class).doReturningWork(work::apply);
+    }
+
+    private List<T> loadAll(StatelessSession session, List<ID> ids) {
+        if (this.entityInformation.hasCompositeId() || this.entityInformation.getIdAttribute() == null) {
+            List<T> entities = new ArrayList<>(ids.size());
+            for (ID id : ids) {
+                entities.add(this.domainClass.cast(session.get(this.domainClass, id)));
+            }
+            return entities;
+        }
+
+        return session.createQuery("select e from " + this.entityInformation.getEntityName() + " e where e." +
+                this.entityInformation.getIdAttribute().getName() + " in (:ids)", this.domainClass)
+            .setParameterList("ids", ids)
+            .getResultList();
     }
 
     @Override
     public boolean existsById(ID id) {
-        return this.repository.existsById(id);
+        if (this.entityCache == null) {
+            return this.repository.existsById(id);
+        }
+
+        Objects.requireNonNull(id, ID_MUST_NOT_BE_NULL);
+        return this.entityCache.exists(id, this.repository::existsById);
     }
 
     @Override
@@ -141,26 +440,45 @@ public class JpaEntityDao<T, ID extends Serializable> implements JpaRepository<T
     @Override
     public void deleteAllInBatch(Iterable<T> entities) {
         this.repository.deleteAllInBatch(entities);
+
+        // bulk deletes do not go through JpaEntityListener
+        if (this.entityCache != null) {
+            entities.forEach(this.entityCache::evict);
+        }
+        QueryCache.invalidate(this.domainClass);
     }
 
     @Override
     public void deleteAllByIdInBatch(Iterable<ID> ids) {
         this.repository.deleteAllByIdInBatch(ids);
+
+        if (this.entityCache != null) {
+            this.entityCache.invalidateAll(ids);
+        }
+        QueryCache.invalidate(this.domainClass);
     }
 
+    /**
+     * one statement for the whole table, see {@link #bulk(Predicate)} for large tables
+     */
     @Override
     public void deleteAllInBatch() {
         this.repository.deleteAllInBatch();
+
+        if (this.entityCache != null) {
+            this.entityCache.invalidateAll();
+        }
+        QueryCache.invalidate(this.domainClass);
     }
 
     @Override
     public T getOne(ID id) {
-        return this.repository.findById(id).orElse(null);
+        return this.findById(id).orElse(null);
     }
 
     @Override
     public T getById(ID id) {
-        return this.repository.findById(id).orElse(null);
+        return this.findById(id).orElse(null);
     }
 
     @Override
@@ -204,23 +522,90 @@ public class JpaEntityDao<T, ID extends Serializable> implements JpaRepository<T
     }
 
     public T getOneById(ID id) {
-        return id == null? null : this.repository.findById(id).orElse(null);
+        return id == null? null : this.findById(id).orElse(null);
     }
 
     public JPAQuery<T> find() {
         return new JPAQuery<T>(this.em).from(this.path);
     }
 
+    /**
+     * bulk update, executing it invalidates the caches of the entity type; see {@link #bulk(Predicate)} when it
+     * writes many rows
+     *
+     * @return
+     */
     public JPAUpdateClause update() {
-        return new JPAUpdateClause(this.em, this.path);
+        return new JPAUpdateClause(this.em, this.path) {
+            @Override
+            public long execute() {
+                long updated = super.execute();
+                afterBulkWrite(true);
+                return updated;
+            }
+        };
     }
 
+    /**
+     * bulk delete, executing it invalidates the caches of the entity type; see {@link #bulk(Predicate)} when it
+     * deletes many rows
+     *
+     * @return
+     */
     public JPADeleteClause delete() {
-        return new JPADeleteClause(this.em, this.path);
+        return new JPADeleteClause(this.em, this.path) {
+            @Override
+            public long execute() {
+                long deleted = super.execute();
+                afterBulkWrite(true);
+                return deleted;
+            }
+        };
+    }
+
+    /**
+     * update or delete the rows matching the predicate in chunks of ids, each in its own transaction, on the
+     * {@link com.statsmind.commons.concurrent.ThreadPool}; needs a PlatformTransactionManager
+     * <p>
+     * Usage:
+     * <pre>
+     * orderDao.bulk(QOrder.order.createdAt.before(cutoff)).chunkSize(500).delete();
+     * </pre>
+     *
+     * @param predicate null for every row
+     * @return
+     * @see BulkMutation
+     */
+    public BulkMutation<T, ID> bulk(Predicate predicate) {
+        return new BulkMutation<>(this, predicate);
     }
 
     public JPAInsertClause insert() {
-        return new JPAInsertClause(this.em, this.path);
+        return new JPAInsertClause(this.em, this.path) {
+            @Override
+            public long execute() {
+                long inserted = super.execute();
+                afterBulkWrite(false);
+                return inserted;
+            }
+        };
+    }
+
+    /**
+     * bulk writes do not go through JpaEntityListener
+     *
+     * @param modifiesExisting true if cached entities may have changed, false if rows have only been inserted,
+     *                         which only invalidates the ids remembered as not found
+     */
+    protected void afterBulkWrite(boolean modifiesExisting) {
+        if (this.entityCache != null) {
+            if (modifiesExisting) {
+                this.entityCache.invalidateAll();
+            } else {
+                this.entityCache.invalidateAbsent();
+            }
+        }
+        QueryCache.invalidate(this.domainClass);
     }
 
     /**
@@ -230,7 +615,7 @@ public class JpaEntityDao<T, ID extends Serializable> implements JpaRepository<T
      * @return
      */
     public List<T> getAll(Predicate predicate) {
-        return this.find().where(predicate).fetch();
+        return this.getAll(this.find().where(predicate));
     }
 
     /**
@@ -240,28 +625,456 @@ public class JpaEntityDao<T, ID extends Serializable> implements JpaRepository<T
      * @return
      */
     public List<T> getAll(JPAQuery<T> query) {
-        return query.fetch();
+        return this.queryCache == null ? query.fetch() : this.queryCache.fetch(query, this::fetchDetached);
+    }
+
+    /**
+     * 流式读取满足条件的对象，见 {@link #stream(JPAQuery)}
+     *
+     * @param predicate
+     * @return
+     */
+    public Stream<T> stream(Predicate predicate) {
+        return this.stream(this.find().where(predicate));
+    }
+
+    /**
+     * stream the results through a cursor, {@value #STREAM_FETCH_SIZE} rows per round trip, in constant heap:
+     * every entity is detached from the persistence context as it is read, so its lazy associations cannot be
+     * loaded; see {@link #forEachBatch} for that
+     * <p>
+     * The stream holds a connection and must be closed, within a transaction. With MySQL the connection needs
+     * useCursorFetch=true, otherwise the driver reads the whole result.
+     *
+     * @param query
+     * @return
+     */
+    public Stream<T> stream(JPAQuery<T> query) {
+        CloseableIterator<T> iterator = streaming(query).iterate();
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .map(entity -> {
+                this.em.detach(entity);
+                return entity;
+            })
+            .onClose(iterator::close);
+    }
+
+    /**
+     * read the results through a cursor and hand them over in batches; the entities of a batch stay attached
+     * while the consumer runs, then are detached
+     *
+     * @param predicate
+     * @param batchSize
+     * @param consumer
+     * @return number of entities read
+     */
+    public long forEachBatch(Predicate predicate, int batchSize, Consumer<List<T>> consumer) {
+        return this.forEachBatch(this.find().where(predicate), batchSize, consumer);
+    }
+
+    public long forEachBatch(JPAQuery<T> query, int batchSize, Consumer<List<T>> consumer) {
+        return this.forEachBatch(this.em, query, batchSize, consumer);
+    }
+
+    private long forEachBatch(EntityManager entityManager, JPAQuery<T> query, int batchSize, Consumer<List<T>> consumer) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        long count = 0;
+        try (CloseableIterator<T> iterator = streaming(query).iterate()) {
+            List<T> batch = new ArrayList<>(batchSize);
+
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                count++;
+
+                if (batch.size() == batchSize) {
+                    consumeBatch(entityManager, batch, consumer);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                consumeBatch(entityManager, batch, consumer);
+            }
+        }
+
+        return count;
+    }
+
+    private static <T> void consumeBatch(EntityManager entityManager, List<T> batch, Consumer<List<T>> consumer) {
+        try {
+            consumer.accept(batch);
+        } finally {
+            batch.forEach(entityManager::detach);
+        }
+    }
+
+    /**
+     * 并行读取满足条件的对象，见 {@link #parallelScan(Predicate, int, int, int, Consumer)}
+     *
+     * @param predicate
+     * @param partitions
+     * @param consumer
+     * @return
+     */
+    public long parallelScan(Predicate predicate, int partitions, Consumer<List<T>> consumer) {
+        return this.parallelScan(predicate, partitions, DEFAULT_SCAN_CONCURRENCY, STREAM_FETCH_SIZE, consumer);
+    }
+
+    /**
+     * read the entities matching the predicate with one streaming query per partition of the ids, the
+     * partitions running concurrently on the {@link ThreadPool}, for full-table reports and aggregations
+     * <p>
+     * Usage:
+     * <pre>
+     * LongAdder total = new LongAdder();
+     * orderDao.parallelScan(QOrder.order.status.eq(Status.PAID), 16, 4, 1000,
+     *     batch -&gt; batch.forEach(order -&gt; total.add(order.getAmount())));
+     * </pre>
+     * Numeric ids are split into ranges of equal span between their min and max, other ids at the quantiles
+     * found with offset queries; entities with a composite id are read in one partition. Each partition opens
+     * its own EntityManager with a read-only resource-local transaction, so it holds a connection while it
+     * runs: at most maxConcurrency partitions run at once whatever their number, keep it below the size of the
+     * connection pool. The partitions do not read one snapshot.
+     * <p>
+     * The consumer is called concurrently from the partitions and must be thread-safe; the entities of a batch
+     * stay attached while it runs, then are detached. When a partition fails, the others not started yet are
+     * skipped and the exception is thrown once the running ones have completed.
+     *
+     * @param predicate      null for every entity
+     * @param partitions     more partitions than maxConcurrency even out partitions of uneven size
+     * @param maxConcurrency partitions read at once
+     * @param batchSize
+     * @param consumer
+     * @return number of entities read
+     */
+    public long parallelScan(Predicate predicate, int partitions, int maxConcurrency, int batchSize,
+                             Consumer<List<T>> consumer) {
+        if (partitions <= 0 || maxConcurrency <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("partitions, maxConcurrency and batchSize must be positive");
+        }
+
+        AtomicLong count = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ThreadPool.Queue<Predicate, Long> queue = ThreadPool.getInstance().<Predicate, Long>createQueue(
+                "scan." + this.domainClass.getSimpleName(),
+                range -> count.addAndGet(scanPartition(range, batchSize, consumer)), maxConcurrency)
+            .resultSink(new ResultSink<>() {
+                @Override
+                public void onResult(Predicate range, Long rows) {
+                }
+
+                @Override
+                public void onError(Predicate range, Throwable throwable) {
+                    failure.compareAndSet(null, throwable);
+                }
+            });
+
+        try {
+            for (Predicate range : partition(new BooleanBuilder(predicate), partitions)) {
+                if (failure.get() != null) {
+                    break;
+                }
+                queue.enqueue(range);
+            }
+        } finally {
+            queue.close();
+            queue.waitForTermination(true);
+        }
+
+        Throwable throwable = failure.get();
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        } else if (throwable instanceof Error) {
+            throw (Error) throwable;
+        } else if (throwable != null) {
+            throw new RuntimeException(throwable);
+        }
+
+        return count.get();
+    }
+
+    private long scanPartition(Predicate range, int batchSize, Consumer<List<T>> consumer) {
+        EntityManager entityManager = this.em.getEntityManagerFactory().createEntityManager();
+        try {
+            entityManager.unwrap(Session.class).setDefaultReadOnly(true);
+            EntityTransaction transaction = entityManager.getTransaction();
+            transaction.begin();
+
+            try {
+                JPAQuery<T> query = new JPAQuery<T>(entityManager).from(this.path).where(range);
+                return forEachBatch(entityManager, streaming(query), batchSize, consumer);
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+            }
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * @return the predicate restricted to consecutive ranges of ids, which together cover every id
+     */
+    private List<Predicate> partition(Predicate predicate, int partitions) {
+        if (partitions == 1 || this.entityInformation.hasCompositeId() || this.entityInformation.getIdAttribute() == null) {
+            return List.of(predicate);
+        }
+
+        Class<?> idType = ClassUtils.resolvePrimitiveIfNecessary(this.entityInformation.getIdType());
+        Path<?> id = Expressions.path(idType, this.path, this.entityInformation.getIdAttribute().getName());
+        List<Object> boundaries = Number.class.isAssignableFrom(idType)
+            ? spanBoundaries(predicate, id, idType, partitions)
+            : quantileBoundaries(predicate, id, partitions);
+
+        List<Predicate> ranges = new ArrayList<>(boundaries.size() + 1);
+        Object lower = null;
+        for (Object upper : boundaries) {
+            ranges.add(range(predicate, id, lower, upper));
+            lower = upper;
+        }
+        ranges.add(range(predicate, id, lower, null));
+
+        return ranges;
+    }
+
+    private List<Object> spanBoundaries(Predicate predicate, Path<?> id, Class<?> idType, int partitions) {
+        Expression<Object> min = Expressions.simpleOperation(Object.class, Ops.AggOps.MIN_AGG, id);
+        Expression<Object> max = Expressions.simpleOperation(Object.class, Ops.AggOps.MAX_AGG, id);
+        Tuple bounds = new JPAQuery<>(this.em).select(min, max).from(this.path).where(predicate).fetchOne();
+        if (bounds == null || bounds.get(min) == null) {
+            return List.of();
+        }
+
+        long lowest = ((Number) bounds.get(min)).longValue();
+        long highest = ((Number) bounds.get(max)).longValue();
+        long span;
+        try {
+            span = Math.subtractExact(highest, lowest);
+        } catch (ArithmeticException e) {
+            // the span does not fit in a long
+            return quantileBoundaries(predicate, id, partitions);
+        }
+        long step = span / partitions + 1;
+
+        List<Object> boundaries = new ArrayList<>(partitions - 1);
+        for (int i = 1; i < partitions && step <= span / i; ++i) {
+            boundaries.add(DefaultConversionService.getSharedInstance().convert(lowest + i * step, idType));
+        }
+        return boundaries;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Object> quantileBoundaries(Predicate predicate, Path<?> id, int partitions) {
+        long count = countOf(new JPAQuery<T>(this.em).from(this.path).where(predicate));
+        OrderSpecifier<?> ascending = new OrderSpecifier(Order.ASC, id);
+
+        List<Object> boundaries = new ArrayList<>(partitions - 1);
+        for (int i = 1; i < partitions && count * i / partitions > 0; ++i) {
+            Object boundary = new JPAQuery<>(this.em).select(id).from(this.path).where(predicate)
+                .orderBy(ascending)
+                .offset(count * i / partitions)
+                .fetchFirst();
+
+            if (boundary != null && (boundaries.isEmpty() || !boundary.equals(boundaries.get(boundaries.size() - 1)))) {
+                boundaries.add(boundary);
+            }
+        }
+        return boundaries;
+    }
+
+    private static Predicate range(Predicate predicate, Path<?> id, Object lower, Object upper) {
+        BooleanBuilder range = new BooleanBuilder(predicate);
+        if (lower != null) {
+            range.and(Expressions.predicate(Ops.GOE, id, Expressions.constant(lower)));
+        }
+        if (upper != null) {
+            range.and(Expressions.predicate(Ops.LT, id, Expressions.constant(upper)));
+        }
+        return range;
+    }
+
+    private JPAQuery<T> streaming(JPAQuery<T> query) {
+        query.setHint(QueryHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE);
+        query.setHint(QueryHints.HINT_READONLY, true);
+        return query;
     }
 
     public Page<T> find(JPAQuery<T> query, Pageable pageable) {
-        long total = query.clone().select(Wildcard.count).fetchOne();
+        long total = this.queryCache == null
+            ? query.clone().select(Wildcard.count).fetchOne()
+            : this.queryCache.fetchCount(query);
 
         if (pageable.isPaged()) {
             query.offset(pageable.getOffset());
             query.limit(pageable.getPageSize());
         }
 
-        return new PageImpl<>(query.fetch(), pageable, total);
+        return new PageImpl<>(this.getAll(query), pageable, total);
     }
 
     public Page<T> find(Predicate predicate, Pageable pageable) {
         return find(find().where(predicate), pageable);
     }
 
+    public KeysetSlice<T> findSlice(Predicate predicate, String cursor, int size, CountMode countMode,
+                                    OrderSpecifier<?>... orders) {
+        return findSlice(find().where(predicate), cursor, size, countMode, orders);
+    }
+
+    /**
+     * keyset pagination: the next slice starts after the sort keys of the last row of the previous one, so
+     * every slice costs the same whatever its depth, unlike offsets
+     * <p>
+     * Usage:
+     * <pre>
+     * KeysetSlice&lt;Order&gt; slice = orderDao.findSlice(QOrder.order.status.eq(status), cursor, 50,
+     *     CountMode.NONE, QOrder.order.createdAt.desc(), QOrder.order.id.desc());
+     * String next = slice.getNextCursor(); // null after the last slice
+     * </pre>
+     * The sort keys must be non-null properties of the entity and the last one unique, e.g. the id; an index
+     * on them in this order makes the slices constant time.
+     *
+     * @param query
+     * @param cursor    {@link KeysetSlice#getNextCursor()} of the previous slice, null for the first one
+     * @param size
+     * @param countMode
+     * @param orders    sort keys
+     * @return
+     * @throws IllegalArgumentException the cursor was not issued for these sort keys
+     */
+    public KeysetSlice<T> findSlice(JPAQuery<T> query, String cursor, int size, CountMode countMode,
+                                    OrderSpecifier<?>... orders) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        if (orders.length == 0) {
+            throw new IllegalArgumentException("at least one sort key is required");
+        }
+
+        List<Path<?>> keys = new ArrayList<>(orders.length);
+        List<Class<?>> types = new ArrayList<>(orders.length);
+        for (OrderSpecifier<?> order : orders) {
+            if (!(order.getTarget() instanceof Path)) {
+                throw new IllegalArgumentException("sort key must be a property: " + order.getTarget());
+            }
+            keys.add((Path<?>) order.getTarget());
+            types.add(order.getTarget().getType());
+        }
+
+        KeysetCursor previous = cursor == null ? null : KeysetCursor.decode(cursor, types);
+
+        Long total = null;
+        boolean isEstimate = false;
+        if (countMode == CountMode.EXACT || (countMode == CountMode.ESTIMATE && (previous == null || previous.getTotal() == null))) {
+            total = this.queryCache == null ? countOf(query) : this.queryCache.fetchCount(query);
+        } else if (countMode == CountMode.ESTIMATE) {
+            total = previous.getTotal();
+            isEstimate = true;
+        }
+
+        if (previous != null) {
+            query.where(seek(orders, previous.getValues()));
+        }
+        query.orderBy(orders);
+        query.limit(size + 1L);
+
+        List<T> results = this.getAll(query);
+        if (results.size() <= size) {
+            return new KeysetSlice<>(results, null, total, isEstimate);
+        }
+
+        List<T> content = new ArrayList<>(results.subList(0, size));
+        BeanWrapper last = PropertyAccessorFactory.forBeanPropertyAccess(content.get(size - 1));
+        List<Object> values = new ArrayList<>(keys.size());
+        for (Path<?> key : keys) {
+            values.add(last.getPropertyValue(propertyOf(key)));
+        }
+
+        String next = new KeysetCursor(countMode == CountMode.ESTIMATE ? total : null, values).encode();
+        return new KeysetSlice<>(content, next, total, isEstimate);
+    }
+
+    private static long countOf(JPAQuery<?> query) {
+        JPAQuery<?> countQuery = query.clone();
+        countQuery.getMetadata().clearOrderBy();
+        countQuery.getMetadata().setModifiers(QueryModifiers.EMPTY);
+
+        Long count = countQuery.select(Wildcard.count).fetchOne();
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * rows after the given values of the sort keys:
+     * k1 &gt;= v1 and (k1 &gt; v1 or (k1 = v1 and k2 &gt; v2) or ...), reversed for descending keys; the first
+     * conjunct is redundant but lets the database seek on the index of k1
+     */
+    private static Predicate seek(OrderSpecifier<?>[] orders, List<Object> values) {
+        BooleanBuilder after = new BooleanBuilder();
+
+        for (int i = 0; i < orders.length; ++i) {
+            BooleanBuilder branch = new BooleanBuilder();
+            for (int j = 0; j < i; ++j) {
+                branch.and(Expressions.predicate(Ops.EQ, orders[j].getTarget(), Expressions.constant(values.get(j))));
+            }
+            branch.and(Expressions.predicate(orders[i].isAscending() ? Ops.GT : Ops.LT,
+                orders[i].getTarget(), Expressions.constant(values.get(i))));
+            after.or(branch);
+        }
+
+        return new BooleanBuilder(Expressions.predicate(orders[0].isAscending() ? Ops.GOE : Ops.LOE,
+            orders[0].getTarget(), Expressions.constant(values.get(0)))).and(after);
+    }
+
+    /**
+     * @return the dotted property path of a path from the root entity, e.g. customer.name
+     */
+    private static String propertyOf(Path<?> path) {
+        Deque<String> names = new ArrayDeque<>();
+        for (Path<?> current = path; !current.getMetadata().isRoot(); current = current.getMetadata().getParent()) {
+            names.addFirst(current.getMetadata().getName());
+        }
+        return String.join(".", names);
+    }
+
     public List<Map<String, Object>> find(String sql, Object... params) {
         return this.jdbcTemplate.queryForList(sql, params);
     }
 
+    /**
+     * stream the rows of a query, {@value #STREAM_FETCH_SIZE} rows per round trip; the stream holds a
+     * connection and must be closed
+     *
+     * @param sql
+     * @param params
+     * @return
+     */
+    public Stream<Map<String, Object>> stream(String sql, Object... params) {
+        return this.streamingJdbcTemplate.queryForStream(sql, new ColumnMapRowMapper(), params);
+    }
+
+    /**
+     * read the rows of a query one at a time, {@value #STREAM_FETCH_SIZE} rows per round trip
+     *
+     * @param sql
+     * @param handler
+     * @param params
+     */
+    public void forEachRow(String sql, RowCallbackHandler handler, Object... params) {
+        this.streamingJdbcTemplate.query(sql, handler, params);
+    }
+
+    /**
+     * the statement is assumed to write the table of the entity, the caches of the entity type are invalidated
+     *
+     * @param sql
+     * @param params
+     * @return generated key
+     */
     public Number insert(String sql, Object... params) {
         KeyHolder holder = new GeneratedKeyHolder();
 
@@ -272,11 +1085,160 @@ public class JpaEntityDao<T, ID extends Serializable> implements JpaRepository<T
             }
             return ps;
         }, holder);
+        afterBulkWrite(false);
 
         return Objects.requireNonNull(holder.getKey());
     }
 
+    /**
+     * insert rows with one statement, sent as JDBC batches of batchSize rows; the statement is assumed to
+     * write the table of the entity, the caches of the entity type are invalidated
+     *
+     * @param sql       an insert statement with one parameter per column
+     * @param rows      parameters of each row
+     * @param batchSize
+     * @return generated keys in the order of the rows, empty if the driver returns none for batches
+     */
+    public List<Number> insertBatch(String sql, List<Object[]> rows, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        List<Number> keys = this.jdbcTemplate.execute((ConnectionCallback<List<Number>>) connection -> {
+            List<Number> generated = new ArrayList<>(rows.size());
+
+            try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (int from = 0; from < rows.size(); from += batchSize) {
+                    for (Object[] row : rows.subList(from, Math.min(rows.size(), from + batchSize))) {
+                        for (int i = 0; i < row.length; ++i) {
+                            ps.setObject(i + 1, row[i]);
+                        }
+                        ps.addBatch();
+                    }
+
+                    ps.executeBatch();
+                    readGeneratedKeys(ps, generated);
+                }
+            }
+
+            return generated;
+        });
+        afterBulkWrite(false);
+
+        return keys;
+    }
+
+    /**
+     * insert rows with multi-row statements, {@code insert into table (a, b) values (?, ?), (?, ?)...}, of
+     * rowsPerStatement rows each; the caches of the entity type are invalidated
+     *
+     * @param table
+     * @param columns
+     * @param rows             values of each row, in the order of the columns
+     * @param rowsPerStatement lowered so that a statement has at most {@link #setMaxParameters maxParameters}
+     *                         parameters
+     * @return generated keys in the order of the rows, empty if the driver returns none
+     */
+    public List<Number> insertRows(String table, List<String> columns, List<Object[]> rows, int rowsPerStatement) {
+        if (rowsPerStatement <= 0) {
+            throw new IllegalArgumentException("rowsPerStatement must be positive");
+        }
+
+        int chunkSize = Math.max(1, Math.min(rowsPerStatement, this.maxParameters / Math.max(1, columns.size())));
+        String placeholders = "(" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        String prefix = "insert into " + table + " (" + String.join(", ", columns) + ") values ";
+
+        List<Number> keys = this.jdbcTemplate.execute((ConnectionCallback<List<Number>>) connection -> {
+            List<Number> generated = new ArrayList<>(rows.size());
+
+            for (int from = 0; from < rows.size(); from += chunkSize) {
+                List<Object[]> chunk = rows.subList(from, Math.min(rows.size(), from + chunkSize));
+                String sql = prefix + String.join(", ", Collections.nCopies(chunk.size(), placeholders));
+
+                try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    int index = 1;
+                    for (Object[] row : chunk) {
+                        if (row.length != columns.size()) {
+                            throw new IllegalArgumentException("expected " + columns.size() + " values, got " + row.length);
+                        }
+                        for (Object value : row) {
+                            ps.setObject(index++, value);
+                        }
+                    }
+
+                    ps.executeUpdate();
+                    readGeneratedKeys(ps, generated);
+                }
+            }
+
+            return generated;
+        });
+        afterBulkWrite(false);
+
+        return keys;
+    }
+
+    /**
+     * insert new entities with multi-row statements, bypassing the persistence context
+     * <p>
+     * beforeSave(true) and afterSave(true) of {@link JpaEntity} are called around the insert and generated ids
+     * are set on the entities, but the entities are not managed and auditing fields are not filled.
+     *
+     * @param entities
+     * @param table
+     * @param columns
+     * @param binder           values of the columns of an entity, called after beforeSave
+     * @param rowsPerStatement
+     * @return the entities
+     */
+    public <S extends T> List<S> insertAll(List<S> entities, String table, List<String> columns,
+                                           Function<? super S, Object[]> binder, int rowsPerStatement) {
+        List<Object[]> rows = new ArrayList<>(entities.size());
+        for (S entity : entities) {
+            if (entity instanceof JpaEntity) {
+                ((JpaEntity) entity).beforeSave(true);
+            }
+            rows.add(binder.apply(entity));
+        }
+
+        List<Number> keys = insertRows(table, columns, rows, rowsPerStatement);
+
+        String idName = this.entityInformation.getIdAttribute() == null ? null
+            : this.entityInformation.getIdAttribute().getName();
+        for (int i = 0; i < entities.size(); ++i) {
+            S entity = entities.get(i);
+            if (idName != null && keys.size() == entities.size()) {
+                PropertyAccessorFactory.forDirectFieldAccess(entity).setPropertyValue(idName, keys.get(i));
+            }
+            if (entity instanceof JpaEntity) {
+                ((JpaEntity) entity).afterSave(true);
+            }
+        }
+
+        return entities;
+    }
+
+    private static void readGeneratedKeys(PreparedStatement ps, List<Number> generated) throws SQLException {
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            while (rs != null && rs.next()) {
+                Object key = rs.getObject(1);
+                if (key instanceof Number) {
+                    generated.add((Number) key);
+                }
+            }
+        }
+    }
+
+    /**
+     * the statement is assumed to write the table of the entity, the caches of the entity type are invalidated
+     *
+     * @param sql
+     * @param params
+     * @return number of rows updated
+     */
     public int update(String sql, Object... params) {
-        return this.jdbcTemplate.update(sql, params);
+        int updated = this.jdbcTemplate.update(sql, params);
+        afterBulkWrite(true);
+        return updated;
     }
 }
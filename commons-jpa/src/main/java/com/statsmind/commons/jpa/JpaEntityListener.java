@@ -1,5 +1,7 @@
 package com.statsmind.commons.jpa;
 
+import com.statsmind.commons.jpa.cache.EntityCacheRegistry;
+import com.statsmind.commons.jpa.cache.QueryCache;
 import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.data.auditing.AuditingHandler;
 import org.springframework.lang.Nullable;
@@ -83,23 +85,27 @@ public class JpaEntityListener {
 
     /**
      * after persist is called for a new entity
-     * isNewRecord = true
+     * isNewRecord = true, 同时清除实体缓存和查询缓存
      *
      * @param target
      */
     @PostPersist
     public void touchForPostPersist(JpaEntity target) {
+        EntityCacheRegistry.evict(target);
+        QueryCache.invalidate(target.getClass());
         target.afterSave(true);
     }
 
     /**
      * after an entity is updated
-     * isNewRecord = false
+     * isNewRecord = false, 同时清除实体缓存和查询缓存
      *
      * @param target
      */
     @PostUpdate
     public void touchForPostUpdate(JpaEntity target) {
+        EntityCacheRegistry.evict(target);
+        QueryCache.invalidate(target.getClass());
         target.afterSave(false);
     }
 
@@ -116,12 +122,14 @@ public class JpaEntityListener {
 
     /**
      * after an entity has been deleted
-     * 实体删除后回调
+     * 实体删除后回调, 同时清除实体缓存和查询缓存
      *
      * @param target
      */
     @PostRemove
     public void touchForPostRemove(JpaEntity target) {
+        EntityCacheRegistry.evict(target);
+        QueryCache.invalidate(target.getClass());
         target.afterDelete();
     }
 
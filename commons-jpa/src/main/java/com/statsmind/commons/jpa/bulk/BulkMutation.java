@@ -0,0 +1,299 @@
+package com.statsmind.commons.jpa.bulk;
+
+import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.ComparablePath;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.jpa.impl.JPADeleteClause;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAUpdateClause;
+import com.statsmind.commons.concurrent.ResultSink;
+import com.statsmind.commons.concurrent.ThreadPool;
+import com.statsmind.commons.jpa.JpaEntityDao;
+import com.statsmind.commons.jpa.cache.EntityCache;
+import com.statsmind.commons.jpa.cache.QueryCache;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Updates or deletes the rows matching a predicate in chunks of primary keys, each chunk in its own
+ * transaction, so that no statement locks more than a chunk of rows and no transaction holds its locks for
+ * long.
+ * <p>
+ * Usage:
+ * <pre>
+ * BulkResult result = orderDao.bulk(QOrder.order.status.eq(Status.EXPIRED))
+ *     .chunkSize(500)
+ *     .parallelism(4)
+ *     .onProgress(progress -&gt; log.info("{}", progress))
+ *     .publishEvents(true)
+ *     .update(clause -&gt; clause.set(QOrder.order.status, Status.ARCHIVED));
+ * </pre>
+ * The calling thread pages through the ids matching the predicate in ascending order, chunkSize ids at a
+ * time, and hands every chunk to the {@link ThreadPool}; at most parallelism chunks run at once, the scan
+ * waits for a free slot otherwise. A chunk runs {@code where id in (chunk) and predicate}, so rows which no
+ * longer match when it runs are left untouched and rows inserted meanwhile are not written. After the chunk,
+ * and again after its commit, its ids are evicted from the {@link EntityCache} and the {@link QueryCache} of
+ * the type is invalidated; with {@link #publishEvents(boolean)} a {@link BulkMutationEvent} with the ids is
+ * then published.
+ * <p>
+ * {@link #update(Consumer)} and {@link #delete()} run one statement per chunk and, like any bulk statement,
+ * bypass {@link com.statsmind.commons.jpa.JpaEntityListener}; {@link #updateEach(Consumer)} and
+ * {@link #deleteEach()} load the entities of the chunk and write them one by one so that the listener and
+ * auditing run, at the cost of one statement per row.
+ * <p>
+ * Chunks commit independently: when one fails, no more chunks are submitted, the ones in flight complete,
+ * and the exception is thrown; the committed chunks stay committed, as reported to the progress listener.
+ * Must not be called within a transaction which has written the rows, the chunks would wait for its locks.
+ * The entity must have a single comparable id.
+ *
+ * @param <T>  type of the entity
+ * @param <ID> type of the id
+ */
+public class BulkMutation<T, ID extends Serializable> {
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private final JpaEntityDao<T, ID> dao;
+    private final Predicate predicate;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private ThreadPool threadPool;
+    private Consumer<BulkResult> progressListener;
+    private boolean publishEvents = false;
+
+    /**
+     * @param dao
+     * @param predicate null for every row
+     * @see JpaEntityDao#bulk(Predicate)
+     */
+    public BulkMutation(JpaEntityDao<T, ID> dao, Predicate predicate) {
+        this.dao = dao;
+        this.predicate = predicate;
+    }
+
+    /**
+     * @param chunkSize rows per chunk, and ids in the in list of its statement
+     * @return
+     */
+    public BulkMutation<T, ID> chunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param parallelism chunks running at once, each holding a connection
+     * @return
+     */
+    public BulkMutation<T, ID> parallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param threadPool runs the chunks, {@link ThreadPool#getInstance()} by default
+     * @return
+     */
+    public BulkMutation<T, ID> threadPool(ThreadPool threadPool) {
+        this.threadPool = threadPool;
+        return this;
+    }
+
+    /**
+     * @param progressListener called after each chunk has committed, one call at a time, from the delivery
+     *                         thread of the pool
+     * @return
+     */
+    public BulkMutation<T, ID> onProgress(Consumer<BulkResult> progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * @param publishEvents publish a {@link BulkMutationEvent} after each chunk has committed, through the
+     *                      ApplicationEventPublisher of the dao
+     * @return
+     */
+    public BulkMutation<T, ID> publishEvents(boolean publishEvents) {
+        this.publishEvents = publishEvents;
+        return this;
+    }
+
+    /**
+     * @param setter sets the new values on the update clause of each chunk
+     * @return
+     */
+    public BulkResult update(Consumer<JPAUpdateClause> setter) {
+        EntityManager em = dao.getEm();
+
+        return run(BulkMutationEvent.Kind.UPDATE, chunk -> {
+            JPAUpdateClause clause = new JPAUpdateClause(em, dao.getPath());
+            setter.accept(clause);
+            return clause.where(chunk).execute();
+        });
+    }
+
+    /**
+     * @param mutator changes an entity, which is then written if dirty
+     * @return
+     */
+    public BulkResult updateEach(Consumer<? super T> mutator) {
+        return run(BulkMutationEvent.Kind.UPDATE, chunk -> {
+            List<T> entities = dao.find().where(chunk).fetch();
+            entities.forEach(mutator);
+            return entities.size();
+        });
+    }
+
+    public BulkResult delete() {
+        EntityManager em = dao.getEm();
+
+        return run(BulkMutationEvent.Kind.DELETE, chunk -> new JPADeleteClause(em, dao.getPath()).where(chunk).execute());
+    }
+
+    public BulkResult deleteEach() {
+        EntityManager em = dao.getEm();
+
+        return run(BulkMutationEvent.Kind.DELETE, chunk -> {
+            List<T> entities = dao.find().where(chunk).fetch();
+            entities.forEach(em::remove);
+            return entities.size();
+        });
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private BulkResult run(BulkMutationEvent.Kind kind, ToLongFunction<Predicate> mutation) {
+        JpaEntityInformation<T, ?> entityInformation = dao.getEntityInformation();
+        if (entityInformation.hasCompositeId() || entityInformation.getIdAttribute() == null) {
+            throw new IllegalStateException("bulk mutations need a single id: " + dao.getDomainClass().getName());
+        }
+
+        return run(kind, mutation, (Class) entityInformation.getIdType(), entityInformation.getIdAttribute().getName());
+    }
+
+    private <C extends Comparable<? super C>> BulkResult run(BulkMutationEvent.Kind kind,
+                                                              ToLongFunction<Predicate> mutation,
+                                                              Class<C> idType, String idName) {
+        TransactionTemplate transaction = dao.getBulkTransaction();
+        if (transaction == null) {
+            throw new IllegalStateException("bulk mutations need a PlatformTransactionManager");
+        }
+
+        ComparablePath<C> id = Expressions.comparablePath(idType, dao.getPath(), idName);
+        Progress<List<C>> progress = new Progress<>();
+        ThreadPool pool = threadPool == null ? ThreadPool.getInstance() : threadPool;
+
+        ThreadPool.Queue<List<C>, Long> queue = pool.createQueue(
+            "bulk." + dao.getDomainClass().getSimpleName(),
+            ids -> runChunk(transaction, kind, mutation, id.in(ids).and(predicate), ids),
+            parallelism);
+        queue.resultSink(progress);
+
+        try {
+            C last = null;
+            while (progress.failure.get() == null) {
+                List<C> ids = new JPAQuery<C>(dao.getEm())
+                    .select(id)
+                    .from(dao.getPath())
+                    .where(new BooleanBuilder(predicate).and(last == null ? null : id.gt(last)))
+                    .orderBy(id.asc())
+                    .limit(chunkSize)
+                    .fetch();
+
+                if (!ids.isEmpty()) {
+                    queue.enqueue(ids);
+                }
+                if (ids.size() < chunkSize) {
+                    break;
+                }
+                last = ids.get(ids.size() - 1);
+            }
+        } finally {
+            queue.close();
+            queue.waitForTermination(true);
+        }
+
+        Throwable failure = progress.failure.get();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+
+        return progress.complete();
+    }
+
+    @SuppressWarnings("unchecked")
+    private long runChunk(TransactionTemplate transaction, BulkMutationEvent.Kind kind,
+                          ToLongFunction<Predicate> mutation, Predicate chunk, List<?> ids) {
+        Long rows = transaction.execute(status -> {
+            long affected = mutation.applyAsLong(chunk);
+
+            EntityCache<T, ID> entityCache = dao.getEntityCache();
+            if (entityCache != null) {
+                entityCache.invalidateAll((List<ID>) ids);
+            }
+            QueryCache.invalidate(dao.getDomainClass());
+
+            return affected;
+        });
+
+        ApplicationEventPublisher eventPublisher = dao.getEventPublisher();
+        if (publishEvents && eventPublisher != null) {
+            eventPublisher.publishEvent(new BulkMutationEvent<>(dao.getDomainClass(), kind, ids));
+        }
+
+        return rows == null ? 0 : rows;
+    }
+
+    private class Progress<P> implements ResultSink<P, Long> {
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        /**
+         * guarded by this
+         */
+        private int chunks;
+        /**
+         * guarded by this
+         */
+        private long affectedRows;
+
+        @Override
+        public synchronized void onResult(P ids, Long rows) {
+            chunks++;
+            affectedRows += rows;
+
+            if (progressListener != null) {
+                progressListener.accept(new BulkResult(chunks, affectedRows, false));
+            }
+        }
+
+        @Override
+        public void onError(P ids, Throwable throwable) {
+            failure.compareAndSet(null, throwable);
+        }
+
+        synchronized BulkResult complete() {
+            BulkResult result = new BulkResult(chunks, affectedRows, true);
+            if (progressListener != null) {
+                progressListener.accept(result);
+            }
+            return result;
+        }
+    }
+}
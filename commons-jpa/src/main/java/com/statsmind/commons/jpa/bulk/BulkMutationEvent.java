@@ -0,0 +1,43 @@
+package com.statsmind.commons.jpa.bulk;
+
+import java.util.List;
+
+/**
+ * Published through the ApplicationEventPublisher once a chunk of a {@link BulkMutation} has committed, with
+ * {@link BulkMutation#publishEvents(boolean)}. One event stands for every row of the chunk, so listeners can
+ * refresh caches or write audit records without a callback per entity.
+ *
+ * @param <T> type of the entity
+ */
+public class BulkMutationEvent<T> {
+    public enum Kind {
+        UPDATE,
+        DELETE
+    }
+
+    private final Class<T> domainClass;
+    private final Kind kind;
+    private final List<?> ids;
+
+    public BulkMutationEvent(Class<T> domainClass, Kind kind, List<?> ids) {
+        this.domainClass = domainClass;
+        this.kind = kind;
+        this.ids = ids;
+    }
+
+    public Class<T> getDomainClass() {
+        return domainClass;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return ids of the rows of the chunk which matched the predicate when it was scanned, a superset of the
+     * rows written if some no longer matched when the chunk ran
+     */
+    public List<?> getIds() {
+        return ids;
+    }
+}
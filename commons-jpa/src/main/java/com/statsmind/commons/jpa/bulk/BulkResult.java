@@ -0,0 +1,42 @@
+package com.statsmind.commons.jpa.bulk;
+
+/**
+ * Progress of a {@link BulkMutation}, as reported after each chunk and returned once it has run.
+ */
+public class BulkResult {
+    private final int chunks;
+    private final long affectedRows;
+    private final boolean isComplete;
+
+    public BulkResult(int chunks, long affectedRows, boolean isComplete) {
+        this.chunks = chunks;
+        this.affectedRows = affectedRows;
+        this.isComplete = isComplete;
+    }
+
+    /**
+     * @return number of chunks committed
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return number of rows updated or deleted by the committed chunks
+     */
+    public long getAffectedRows() {
+        return affectedRows;
+    }
+
+    /**
+     * @return true once every chunk has committed
+     */
+    public boolean isComplete() {
+        return isComplete;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult{chunks=" + chunks + ", affectedRows=" + affectedRows + ", isComplete=" + isComplete + "}";
+    }
+}
@@ -0,0 +1,102 @@
+package com.statsmind.commons.jpa.cache;
+
+import com.statsmind.commons.cache.InvalidationBus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Propagates the invalidations of the {@link EntityCache} and {@link QueryCache} instances to the other nodes
+ * through an {@link InvalidationBus}, and applies theirs to this node.
+ * <p>
+ * An invalidation made within a transaction is published once it has committed, so another node cannot reload
+ * the row as it was before. Without a bus attached the caches are local to the node.
+ */
+public final class CacheInvalidations {
+    static final String ENTITY_REGION = "entity:";
+    static final String QUERY_REGION = "query:";
+    static final String ABSENT_REGION = "absent:";
+
+    private static volatile InvalidationBus bus;
+
+    private CacheInvalidations() {
+    }
+
+    /**
+     * publish the invalidations of this node on the bus, and apply the ones of the other nodes
+     *
+     * @param bus
+     */
+    public static void attach(InvalidationBus bus) {
+        bus.subscribe(CacheInvalidations::onInvalidation);
+        CacheInvalidations.bus = bus;
+    }
+
+    public static InvalidationBus getBus() {
+        return bus;
+    }
+
+    /**
+     * @param domainClass
+     * @param id          null for every entity of the type
+     */
+    static void publishEntity(Class<?> domainClass, Object id) {
+        publish(ENTITY_REGION + domainClass.getName(), id == null ? null : id.toString());
+    }
+
+    static void publishAbsent(Class<?> domainClass) {
+        publish(ABSENT_REGION + domainClass.getName(), null);
+    }
+
+    static void publishQueries(Class<?> entityType) {
+        publish(QUERY_REGION + entityType.getName(), null);
+    }
+
+    private static void publish(String region, String key) {
+        InvalidationBus bus = CacheInvalidations.bus;
+        if (bus == null) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bus.publish(region, key);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                bus.publish(region, key);
+            }
+        });
+    }
+
+    private static void onInvalidation(String region, String key) {
+        if (region.startsWith(ENTITY_REGION)) {
+            Class<?> domainClass = classOf(region.substring(ENTITY_REGION.length()));
+            EntityCache<?, ?> cache = domainClass == null ? null : EntityCacheRegistry.get(domainClass);
+            if (cache != null && cache.getDomainClass() == domainClass) {
+                cache.invalidateLocally(key);
+            }
+        } else if (region.startsWith(ABSENT_REGION)) {
+            Class<?> domainClass = classOf(region.substring(ABSENT_REGION.length()));
+            EntityCache<?, ?> cache = domainClass == null ? null : EntityCacheRegistry.get(domainClass);
+            if (cache != null && cache.getDomainClass() == domainClass) {
+                cache.dropAbsent();
+            }
+        } else if (region.startsWith(QUERY_REGION)) {
+            Class<?> entityType = classOf(region.substring(QUERY_REGION.length()));
+            if (entityType != null) {
+                QueryCache.invalidateLocally(entityType);
+            }
+        }
+    }
+
+    private static Class<?> classOf(String name) {
+        try {
+            return ClassUtils.forName(name, null);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.statsmind.commons.jpa.cache;
+
+import java.lang.annotation.*;
+
+/**
+ * Enables the entity cache of {@link com.statsmind.commons.jpa.JpaEntityDao} for this entity type,
+ * see {@link EntityCache}.
+ * <p>
+ * Usage:
+ * <pre>
+ * &#64;Entity
+ * &#64;CachedEntity(maximumSize = 1000, expireAfterWrite = 3600)
+ * public class Country extends JpaEntity {
+ *     ...
+ * }
+ * </pre>
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+public @interface CachedEntity {
+    /**
+     * @return maximum number of cached entities
+     */
+    long maximumSize() default 10_000;
+
+    /**
+     * @return time to live of a cached entity in seconds, 0 for no expiration
+     */
+    long expireAfterWrite() default 600;
+
+    /**
+     * @return time to live in seconds of the tombstone of an id which was not found, 0 to look unknown ids up
+     * every time
+     */
+    long notFoundTtl() default 5;
+}
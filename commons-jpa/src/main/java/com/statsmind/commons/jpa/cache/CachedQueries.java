@@ -0,0 +1,37 @@
+package com.statsmind.commons.jpa.cache;
+
+import java.lang.annotation.*;
+
+/**
+ * Enables the query-result cache of {@link com.statsmind.commons.jpa.JpaEntityDao} for this entity type,
+ * see {@link QueryCache}.
+ * <p>
+ * Usage:
+ * <pre>
+ * &#64;Entity
+ * &#64;CachedQueries(expireAfterWrite = 30, countExpireAfterWrite = 300)
+ * public class Order extends JpaEntity {
+ *     ...
+ * }
+ * </pre>
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+public @interface CachedQueries {
+    /**
+     * @return maximum number of cached results, and of cached counts
+     */
+    long maximumSize() default 1_000;
+
+    /**
+     * @return time to live of a cached result in seconds
+     */
+    long expireAfterWrite() default 60;
+
+    /**
+     * @return time to live of a cached count in seconds
+     */
+    long countExpireAfterWrite() default 600;
+}
@@ -0,0 +1,303 @@
+package com.statsmind.commons.jpa.cache;
+
+import com.statsmind.commons.cache.Cache;
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Read-through cache of the entities of one type, by id.
+ * <p>
+ * Cached instances are shared by all threads and must be treated as read-only; they are loaded by a
+ * StatelessSession on the connection of the caller, so they belong to no persistence context of a caller, even
+ * one opened in view or by a read-only transaction, and may hold uninitialized lazy associations. Within a
+ * read-write transaction the cache is bypassed, so that the caller gets an entity managed by its own
+ * persistence context, and nothing loaded there is cached.
+ * <p>
+ * Entries are invalidated by {@link com.statsmind.commons.jpa.JpaEntityListener} when an entity is persisted,
+ * updated or removed, and once more when the transaction completes, so a concurrent reader cannot keep the
+ * row as it was before the commit. With {@link CacheInvalidations#attach} the invalidations reach the other
+ * nodes as well.
+ * <p>
+ * Ids which are not found can be remembered by a tombstone with a short time to live, so that repeated
+ * lookups of unknown ids do not reach the database. Tombstones are invalidated with the entities, e.g. when an
+ * entity is persisted with that id, and all at once by {@link #invalidateAbsent()} after inserts which bypass
+ * the persistence context.
+ *
+ * @param <T>  type of the entity
+ * @param <ID> type of the id
+ */
+public class EntityCache<T, ID> {
+    private final Class<T> domainClass;
+    private final JpaEntityInformation<T, ?> entityInformation;
+    private final Cache<ID, T> cache;
+    /**
+     * ids known not to exist, null if disabled
+     */
+    private final Cache<ID, Boolean> absent;
+    /**
+     * incremented by every invalidation, a lookup which raced with one does not record its id as absent
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public EntityCache(Class<T> domainClass, JpaEntityInformation<T, ?> entityInformation, Cache<ID, T> cache) {
+        this(domainClass, entityInformation, cache, null);
+    }
+
+    /**
+     * @param domainClass
+     * @param entityInformation
+     * @param cache
+     * @param absent            tombstones of the ids not found, with a short time to live; null to disable
+     */
+    public EntityCache(Class<T> domainClass, JpaEntityInformation<T, ?> entityInformation, Cache<ID, T> cache,
+                       Cache<ID, Boolean> absent) {
+        this.domainClass = domainClass;
+        this.entityInformation = entityInformation;
+        this.cache = cache;
+        this.absent = absent;
+    }
+
+    public Class<T> getDomainClass() {
+        return domainClass;
+    }
+
+    public Cache<ID, T> getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the tombstones of the ids not found, null if disabled
+     */
+    public Cache<ID, Boolean> getAbsent() {
+        return absent;
+    }
+
+    /**
+     * @return false within a read-write transaction
+     */
+    public boolean isReadable() {
+        return !TransactionSynchronizationManager.isActualTransactionActive()
+            || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    /**
+     * @param id
+     * @param loader loads the entity when it is not cached, returns null if it does not exist
+     * @return
+     */
+    public T get(ID id, Function<? super ID, ? extends T> loader) {
+        if (!isReadable()) {
+            return loader.apply(id);
+        }
+        if (isAbsent(id)) {
+            return null;
+        }
+
+        long invalidation = invalidations.get();
+        T entity = cache.get(id, loader);
+        if (entity == null) {
+            markAbsent(id, invalidation);
+        }
+        return entity;
+    }
+
+    /**
+     * @param id
+     * @param query tells whether the entity exists in the database
+     * @return
+     */
+    public boolean exists(ID id, Predicate<? super ID> query) {
+        if (!isReadable()) {
+            return query.test(id);
+        }
+        if (isAbsent(id)) {
+            return false;
+        }
+        if (cache.getIfPresent(id) != null) {
+            return true;
+        }
+
+        long invalidation = invalidations.get();
+        boolean exists = query.test(id);
+        if (!exists) {
+            markAbsent(id, invalidation);
+        }
+        return exists;
+    }
+
+    /**
+     * @param id
+     * @return true if the id was recently not found, and no entity of the type has been written since
+     */
+    public boolean isAbsent(ID id) {
+        return absent != null && isReadable() && absent.getIfPresent(id) != null;
+    }
+
+    /**
+     * @param invalidation value of the invalidation counter before the lookup
+     */
+    private void markAbsent(ID id, long invalidation) {
+        if (absent == null) {
+            return;
+        }
+
+        absent.put(id, Boolean.TRUE);
+
+        // an entity written during the lookup may have been created with this id
+        if (invalidations.get() != invalidation) {
+            absent.invalidate(id);
+        }
+    }
+
+    /**
+     * @param ids
+     * @return the cached entities by id, nothing within a read-write transaction
+     */
+    public Map<ID, T> getAllPresent(Iterable<? extends ID> ids) {
+        if (!isReadable()) {
+            return Map.of();
+        }
+
+        return cache.getAllPresent(ids);
+    }
+
+    /**
+     * @return changes with every invalidation, to be read before loading entities passed to
+     * {@link #put(Object, long)}
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * @param entity       a detached entity, which no persistence context may change once cached
+     * @param invalidation value of {@link #getInvalidationCount()} before the entity was loaded, it is not
+     *                     cached if an entity of the type has been written since, it may be stale
+     */
+    public void put(T entity, long invalidation) {
+        ID id = getId(entity);
+        if (id == null || !isReadable() || invalidations.get() != invalidation) {
+            return;
+        }
+
+        cache.put(id, entity);
+
+        // an invalidation which ran before the put did not drop it
+        if (invalidations.get() != invalidation) {
+            cache.invalidate(id);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public ID getId(T entity) {
+        return (ID) entityInformation.getId(entity);
+    }
+
+    /**
+     * @param entity an entity of this type which has been written
+     */
+    public void evict(T entity) {
+        ID id = getId(entity);
+        if (id != null) {
+            invalidate(id);
+        }
+    }
+
+    public void invalidate(ID id) {
+        drop(id);
+        afterCompletion(() -> drop(id));
+        CacheInvalidations.publishEntity(domainClass, id);
+    }
+
+    public void invalidateAll(Iterable<? extends ID> ids) {
+        for (ID id : ids) {
+            invalidate(id);
+        }
+    }
+
+    public void invalidateAll() {
+        dropAll();
+        afterCompletion(this::dropAll);
+        CacheInvalidations.publishEntity(domainClass, null);
+    }
+
+    /**
+     * forget every id not found, e.g. after rows have been inserted without going through JpaEntityListener;
+     * the cached entities are kept
+     */
+    public void invalidateAbsent() {
+        if (absent == null) {
+            return;
+        }
+
+        dropAbsent();
+        afterCompletion(this::dropAbsent);
+        CacheInvalidations.publishAbsent(domainClass);
+    }
+
+    void dropAbsent() {
+        invalidations.incrementAndGet();
+        if (absent != null) {
+            absent.invalidateAll();
+        }
+    }
+
+    private void drop(ID id) {
+        invalidations.incrementAndGet();
+        cache.invalidate(id);
+        if (absent != null) {
+            absent.invalidate(id);
+        }
+    }
+
+    private void dropAll() {
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+        if (absent != null) {
+            absent.invalidateAll();
+        }
+    }
+
+    /**
+     * apply an invalidation published by another node, without publishing it again
+     *
+     * @param id the id as a string, null for every entity
+     */
+    @SuppressWarnings("unchecked")
+    void invalidateLocally(String id) {
+        if (id == null) {
+            dropAll();
+            return;
+        }
+
+        Class<?> idType = entityInformation.getIdType();
+        try {
+            drop((ID) (idType == String.class ? id
+                : DefaultConversionService.getSharedInstance().convert(id, idType)));
+        } catch (ConversionException e) {
+            // a composite id, cannot be rebuilt from its string
+            dropAll();
+        }
+    }
+
+    private static void afterCompletion(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                runnable.run();
+            }
+        });
+    }
+}
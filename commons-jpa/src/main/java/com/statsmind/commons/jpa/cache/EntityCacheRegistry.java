@@ -0,0 +1,94 @@
+package com.statsmind.commons.jpa.cache;
+
+import com.statsmind.commons.cache.Cache;
+import com.statsmind.commons.cache.CacheBuilder;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link EntityCache} of every entity type annotated with {@link CachedEntity}, created with the first
+ * {@link com.statsmind.commons.jpa.JpaEntityDao} of the type.
+ */
+public final class EntityCacheRegistry {
+    /**
+     * by entity class, empty for the classes without cache
+     */
+    private static final Map<Class<?>, Optional<EntityCache<?, ?>>> caches = new ConcurrentHashMap<>();
+
+    private EntityCacheRegistry() {
+    }
+
+    /**
+     * @param domainClass
+     * @param entityInformation
+     * @return the cache of the entity type, or null if it is not annotated with {@link CachedEntity}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, ID> EntityCache<T, ID> register(Class<T> domainClass, JpaEntityInformation<T, ?> entityInformation) {
+        return (EntityCache<T, ID>) caches.compute(domainClass, (key, existing) -> {
+            if (existing != null && existing.isPresent()) {
+                return existing;
+            }
+
+            CachedEntity annotation = domainClass.getAnnotation(CachedEntity.class);
+            if (annotation == null) {
+                return Optional.empty();
+            }
+
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .name("entity." + domainClass.getSimpleName())
+                .maximumSize(annotation.maximumSize())
+                .recordStats();
+            if (annotation.expireAfterWrite() > 0) {
+                builder.expireAfterWrite(annotation.expireAfterWrite(), TimeUnit.SECONDS);
+            }
+
+            Cache<Object, T> cache = builder.build();
+
+            Cache<Object, Boolean> absent = null;
+            if (annotation.notFoundTtl() > 0) {
+                absent = CacheBuilder.newBuilder()
+                    .name("absent." + domainClass.getSimpleName())
+                    .maximumSize(annotation.maximumSize())
+                    .expireAfterWrite(annotation.notFoundTtl(), TimeUnit.SECONDS)
+                    .recordStats()
+                    .build();
+            }
+
+            return Optional.of(new EntityCache<T, Object>(domainClass, entityInformation, cache, absent));
+        }).orElse(null);
+    }
+
+    /**
+     * @param domainClass
+     * @return the cache of the entity type, or null if it has none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, ID> EntityCache<T, ID> get(Class<T> domainClass) {
+        for (Class<?> type = domainClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            Optional<EntityCache<?, ?>> cache = caches.get(type);
+            if (cache != null) {
+                return (EntityCache<T, ID>) cache.orElse(null);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * invalidate the cached copy of an entity which has been written
+     *
+     * @param entity
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void evict(T entity) {
+        EntityCache<T, ?> cache = get((Class<T>) entity.getClass());
+        if (cache != null) {
+            cache.evict(entity);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.statsmind.commons.jpa.cache;
+
+import com.statsmind.commons.cache.InvalidationBus;
+import com.statsmind.commons.cache.InvalidationListener;
+import com.statsmind.commons.concurrent.ThreadPool;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * An {@link InvalidationBus} through a change log table of the shared database, without any broker.
+ * <p>
+ * Usage:
+ * <pre>
+ * JdbcInvalidationBus bus = new JdbcInvalidationBus(jdbcTemplate).createTable();
+ * CacheInvalidations.attach(bus);
+ * bus.start();
+ * </pre>
+ * <p>
+ * Published invalidations are queued and appended to the table in one batch per poll interval. Every node
+ * tails the table by id from the highest id it has read, skipping its own records. An id below the highest
+ * one which is missing may belong to a transaction which has not committed yet, so it is looked for again
+ * during the lookback window, up to {@value #MAX_IN_LIST} missing ids per poll in turn. Ids are assumed to
+ * step by the greatest common divisor of the steps seen so far, so that an auto_increment_increment above 1
+ * does not leave ids which never come; ids skipped by a sequence cache are looked for until the lookback
+ * window. A write is thus seen by the other nodes within about two poll intervals, or later for a record
+ * committed out of id order, if it comes within the lookback window. Invalidations queued when the node
+ * crashes are lost, the entries concerned stay stale until they expire.
+ * <p>
+ * Records older than the retention are deleted by every node from time to time.
+ */
+public class JdbcInvalidationBus implements InvalidationBus {
+    public static final String DEFAULT_TABLE = "commons_invalidation";
+
+    /**
+     * ids to look for again are not tracked beyond this, their records may be missed
+     */
+    private static final int MAX_GAPS = 10_000;
+    private static final int MAX_IN_LIST = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String table;
+    private final String nodeId;
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<Invalidation> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * a poll is queued or running, ticks are skipped meanwhile
+     */
+    private final AtomicBoolean isPolling = new AtomicBoolean();
+    private volatile long pollIntervalMillis = 500;
+    private volatile long lookbackMillis = TimeUnit.SECONDS.toMillis(30);
+    private volatile long retentionMillis = TimeUnit.HOURS.toMillis(1);
+    private volatile int batchSize = 1000;
+
+    /**
+     * the following are only accessed by the polling task
+     */
+    private long watermark = -1;
+    /**
+     * greatest common divisor of the steps between the ids read, 0 until one has been seen
+     */
+    private long stride;
+    /**
+     * missing ids below the watermark, with the time they were first missed
+     */
+    private final Map<Long, Long> gaps = new LinkedHashMap<>();
+    private long lastPurge;
+
+    private ScheduledFuture<?> poller;
+
+    public JdbcInvalidationBus(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, DEFAULT_TABLE);
+    }
+
+    public JdbcInvalidationBus(JdbcTemplate jdbcTemplate, String table) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.nodeId = UUID.randomUUID().toString();
+    }
+
+    /**
+     * create the change log table if it does not exist yet
+     *
+     * @return
+     */
+    public JdbcInvalidationBus createTable() {
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+            connection.getMetaData().getDatabaseProductName());
+        String id = product != null && (product.contains("MySQL") || product.contains("MariaDB"))
+            ? "id bigint not null auto_increment primary key, "
+            : "id bigint generated by default as identity primary key, ";
+
+        jdbcTemplate.execute("create table if not exists " + table + " (" +
+            id +
+            "node_id varchar(64) not null, " +
+            "region varchar(255) not null, " +
+            "item_key varchar(512), " +
+            "created_at bigint not null)");
+        return this;
+    }
+
+    /**
+     * @param pollInterval how often queued invalidations are written and new ones are read
+     * @param unit
+     * @return
+     */
+    public JdbcInvalidationBus pollInterval(long pollInterval, TimeUnit unit) {
+        this.pollIntervalMillis = unit.toMillis(pollInterval);
+        return this;
+    }
+
+    /**
+     * @param lookback how long a missing id is looked for, must exceed the longest transaction which writes
+     *                 cached entities
+     * @param unit
+     * @return
+     */
+    public JdbcInvalidationBus lookback(long lookback, TimeUnit unit) {
+        this.lookbackMillis = unit.toMillis(lookback);
+        return this;
+    }
+
+    /**
+     * @param retention how long records are kept in the table
+     * @param unit
+     * @return
+     */
+    public JdbcInvalidationBus retention(long retention, TimeUnit unit) {
+        this.retentionMillis = unit.toMillis(retention);
+        return this;
+    }
+
+    /**
+     * @param batchSize maximum number of records read by one query
+     * @return
+     */
+    public JdbcInvalidationBus batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void publish(String region, String key) {
+        pending.add(new Invalidation(region, key));
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * start tailing the table from its current end, records written before are ignored
+     */
+    public synchronized void start() {
+        if (poller != null) {
+            return;
+        }
+
+        Long max = jdbcTemplate.queryForObject("select max(id) from " + table, Long.class);
+        watermark = max == null ? 0 : max;
+
+        ThreadPool threadPool = ThreadPool.getInstance();
+        poller = threadPool.getScheduler().scheduleWithFixedDelay(
+            () -> tick(threadPool), pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * run a poll on the thread pool, unless the previous one has not completed yet
+     */
+    private void tick(ThreadPool threadPool) {
+        if (!isPolling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            threadPool.invoke(this::poll).whenComplete((result, throwable) -> isPolling.set(false));
+        } catch (RuntimeException e) {
+            isPolling.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * stop tailing the table, after writing the queued invalidations
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (poller != null) {
+                poller.cancel(false);
+                poller = null;
+            }
+        }
+
+        flush();
+    }
+
+    /**
+     * write the queued invalidations, then notify the listeners of the ones written by other nodes
+     */
+    protected synchronized void poll() {
+        try {
+            flush();
+            readGaps();
+
+            while (readNew() == batchSize) {
+                // behind, read on
+            }
+
+            purge();
+        } catch (DataAccessException e) {
+            // retried on next poll, queued invalidations are kept
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * append the queued invalidations to the table in batches, duplicates removed
+     */
+    private void flush() {
+        Set<Invalidation> batch = new LinkedHashSet<>();
+        for (Invalidation invalidation; batch.size() < batchSize && (invalidation = pending.poll()) != null; ) {
+            batch.add(invalidation);
+        }
+
+        while (!batch.isEmpty()) {
+            long now = System.currentTimeMillis();
+            List<Object[]> args = batch.stream()
+                .map(invalidation -> new Object[]{nodeId, invalidation.region, invalidation.key, now})
+                .collect(Collectors.toList());
+
+            try {
+                jdbcTemplate.batchUpdate("insert into " + table + " (node_id, region, item_key, created_at)" +
+                    " values (?, ?, ?, ?)", args);
+            } catch (DataAccessException e) {
+                pending.addAll(batch);
+                throw e;
+            }
+
+            batch.clear();
+            for (Invalidation invalidation; batch.size() < batchSize && (invalidation = pending.poll()) != null; ) {
+                batch.add(invalidation);
+            }
+        }
+    }
+
+    /**
+     * @return number of records read
+     */
+    private int readNew() {
+        List<Record> records = jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("select id, node_id, region, item_key from " +
+                table + " where id > ? order by id");
+            statement.setLong(1, watermark);
+            statement.setMaxRows(batchSize);
+            return statement;
+        }, (rs, rowNum) -> new Record(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+
+        long now = System.currentTimeMillis();
+        for (Record record : records) {
+            long step = stride == 0 ? 1 : stride;
+            for (long missing = watermark + step; missing < record.id && gaps.size() < MAX_GAPS; missing += step) {
+                gaps.put(missing, now);
+            }
+
+            stride = gcd(stride, record.id - watermark);
+            watermark = record.id;
+            dispatch(record);
+        }
+
+        return records.size();
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+
+    /**
+     * look for the records of the oldest looked for missing ids, which may have been committed since; the ids
+     * still missing are looked for again after the others
+     */
+    private void readGaps() {
+        long expiredBefore = System.currentTimeMillis() - lookbackMillis;
+        gaps.values().removeIf(missedAt -> missedAt < expiredBefore);
+
+        if (gaps.isEmpty()) {
+            return;
+        }
+
+        List<Long> chunk = gaps.keySet().stream().limit(MAX_IN_LIST).collect(Collectors.toList());
+        String in = chunk.stream().map(id -> "?").collect(Collectors.joining(", "));
+
+        List<Record> records = jdbcTemplate.query("select id, node_id, region, item_key from " + table +
+                " where id in (" + in + ")",
+            (rs, rowNum) -> new Record(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4)),
+            chunk.toArray());
+
+        for (Record record : records) {
+            gaps.remove(record.id);
+            dispatch(record);
+        }
+
+        for (Long id : chunk) {
+            Long missedAt = gaps.remove(id);
+            if (missedAt != null) {
+                gaps.put(id, missedAt);
+            }
+        }
+    }
+
+    private void dispatch(Record record) {
+        if (nodeId.equals(record.nodeId)) {
+            return;
+        }
+
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.onInvalidation(record.region, record.key);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * delete the records older than the retention, at most once per retention tenth
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        if (now - lastPurge < retentionMillis / 10) {
+            return;
+        }
+
+        lastPurge = now;
+        jdbcTemplate.update("delete from " + table + " where created_at < ?", now - retentionMillis);
+    }
+
+    private static final class Invalidation {
+        private final String region;
+        private final String key;
+
+        Invalidation(String region, String key) {
+            this.region = region;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Invalidation)) {
+                return false;
+            }
+
+            Invalidation that = (Invalidation) o;
+            return region.equals(that.region) && Objects.equals(key, that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * region.hashCode() + (key == null ? 0 : key.hashCode());
+        }
+    }
+
+    private static final class Record {
+        private final long id;
+        private final String nodeId;
+        private final String region;
+        private final String key;
+
+        Record(long id, String nodeId, String region, String key) {
+            this.id = id;
+            this.nodeId = nodeId;
+            this.region = region;
+            this.key = key;
+        }
+    }
+}
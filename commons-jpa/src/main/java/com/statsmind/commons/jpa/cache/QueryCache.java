@@ -0,0 +1,236 @@
+package com.statsmind.commons.jpa.cache;
+
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.dsl.Wildcard;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.statsmind.commons.cache.Cache;
+import com.statsmind.commons.cache.CacheBuilder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Results and counts of the QueryDSL queries on one entity type, keyed on the serialized query.
+ * <p>
+ * Every entity type read by a cached query has a generation, which is part of the key. Writing an entity
+ * of the type (through the {@link com.statsmind.commons.jpa.JpaEntityListener} callbacks or the bulk clauses
+ * of {@link com.statsmind.commons.jpa.JpaEntityDao}) increments it, so only the entries of queries reading
+ * that type become unreachable; they are evicted by size or expiration later. The generation is bumped once
+ * more when the transaction completes, so a result read before the commit is not kept.
+ * <p>
+ * Entity types are taken from the joins of the query, types only read in subqueries are not tracked.
+ * Like {@link EntityCache}, the cache is bypassed within read-write transactions, and cached entities are
+ * shared and detached, each hit returns a new list of them.
+ */
+public class QueryCache {
+    /**
+     * by entity class, empty for the classes without cache
+     */
+    private static final Map<Class<?>, Optional<QueryCache>> caches = new ConcurrentHashMap<>();
+    /**
+     * only for the entity types read by some cached query
+     */
+    private static final Map<Class<?>, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final Cache<String, List<?>> results;
+    private final Cache<String, Long> counts;
+
+    public QueryCache(Cache<String, List<?>> results, Cache<String, Long> counts) {
+        this.results = results;
+        this.counts = counts;
+    }
+
+    /**
+     * @param domainClass
+     * @return the query cache of the entity type, or null if it is not annotated with {@link CachedQueries}
+     */
+    public static QueryCache register(Class<?> domainClass) {
+        return caches.computeIfAbsent(domainClass, key -> {
+            CachedQueries annotation = domainClass.getAnnotation(CachedQueries.class);
+            if (annotation == null) {
+                return Optional.empty();
+            }
+
+            Cache<String, List<?>> results = CacheBuilder.newBuilder()
+                .name("query." + domainClass.getSimpleName())
+                .maximumSize(annotation.maximumSize())
+                .expireAfterWrite(annotation.expireAfterWrite(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+            Cache<String, Long> counts = CacheBuilder.newBuilder()
+                .name("count." + domainClass.getSimpleName())
+                .maximumSize(annotation.maximumSize())
+                .expireAfterWrite(annotation.countExpireAfterWrite(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+            return Optional.of(new QueryCache(results, counts));
+        }).orElse(null);
+    }
+
+    public Cache<String, List<?>> getResults() {
+        return results;
+    }
+
+    public Cache<String, Long> getCounts() {
+        return counts;
+    }
+
+    /**
+     * @param query
+     * @param loader runs the query on a miss outside of the persistence context of the caller, e.g. one opened
+     *               in view or by a read-only transaction, so that the cached entities are detached instead of
+     *               being managed by that context while shared with other threads
+     * @return the results of the query, from the cache if possible
+     */
+    @SuppressWarnings("unchecked")
+    public <R> List<R> fetch(JPAQuery<R> query, Function<JPAQuery<R>, List<R>> loader) {
+        if (!isReadable()) {
+            return query.fetch();
+        }
+
+        List<R> cached = (List<R>) results.get(keyOf(query.getMetadata(), "fetch"), key -> loader.apply(query));
+        return new ArrayList<>(cached);
+    }
+
+    /**
+     * @param query
+     * @return the number of rows of the query without its limit and offset, from the cache if possible
+     */
+    public long fetchCount(JPAQuery<?> query) {
+        if (!isReadable()) {
+            return countOf(query);
+        }
+
+        QueryMetadata metadata = query.getMetadata().clone();
+        metadata.setModifiers(QueryModifiers.EMPTY);
+        return counts.get(keyOf(metadata, "count"), key -> countOf(query));
+    }
+
+    private static long countOf(JPAQuery<?> query) {
+        JPAQuery<?> countQuery = query.clone();
+        countQuery.getMetadata().setModifiers(QueryModifiers.EMPTY);
+        countQuery.getMetadata().clearOrderBy();
+
+        Long count = countQuery.select(Wildcard.count).fetchOne();
+        return count == null ? 0 : count;
+    }
+
+    private static boolean isReadable() {
+        return !TransactionSynchronizationManager.isActualTransactionActive()
+            || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    /**
+     * entities of the type, or of one of its subclasses, have been written
+     *
+     * @param entityType
+     */
+    public static void invalidate(Class<?> entityType) {
+        CacheInvalidations.publishQueries(entityType);
+
+        if (!bump(entityType) || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                bump(entityType);
+            }
+        });
+    }
+
+    /**
+     * apply an invalidation published by another node, without publishing it again
+     *
+     * @param entityType
+     */
+    static void invalidateLocally(Class<?> entityType) {
+        bump(entityType);
+    }
+
+    /**
+     * @return true if some cached query depends on the type
+     */
+    private static boolean bump(Class<?> entityType) {
+        boolean tracked = false;
+
+        for (Class<?> type = entityType; type != null && type != Object.class; type = type.getSuperclass()) {
+            AtomicLong generation = generations.get(type);
+            if (generation != null) {
+                generation.incrementAndGet();
+                tracked = true;
+            }
+        }
+
+        return tracked;
+    }
+
+    /**
+     * @param metadata
+     * @param kind
+     * @return the serialized query, prefixed by the current generation of every entity type it reads
+     */
+    static String keyOf(QueryMetadata metadata, String kind) {
+        StringBuilder key = new StringBuilder(256).append(kind);
+
+        for (Class<?> type : typesOf(metadata)) {
+            long generation = generations.computeIfAbsent(type, t -> new AtomicLong()).get();
+            key.append('|').append(type.getName()).append('@').append(generation);
+        }
+
+        key.append("|select ").append(metadata.getProjection());
+        if (metadata.isDistinct()) {
+            key.append(" distinct");
+        }
+        for (JoinExpression join : metadata.getJoins()) {
+            key.append("|join ").append(join);
+        }
+        key.append("|where ").append(metadata.getWhere());
+        key.append("|group by ").append(metadata.getGroupBy());
+        key.append("|having ").append(metadata.getHaving());
+        key.append("|order by ").append(metadata.getOrderBy());
+
+        QueryModifiers modifiers = metadata.getModifiers();
+        key.append("|limit ").append(modifiers.getLimit()).append(" offset ").append(modifiers.getOffset());
+
+        if (!metadata.getParams().isEmpty()) {
+            key.append("|params ").append(metadata.getParams());
+        }
+
+        return key.toString();
+    }
+
+    private static Set<Class<?>> typesOf(QueryMetadata metadata) {
+        Set<Class<?>> types = new LinkedHashSet<>();
+
+        for (JoinExpression join : metadata.getJoins()) {
+            Expression<?> target = join.getTarget();
+            // join(path, alias) targets are alias operations on the path
+            if (target instanceof Operation && !((Operation<?>) target).getArgs().isEmpty()) {
+                target = ((Operation<?>) target).getArg(0);
+            }
+
+            if (target instanceof EntityPath) {
+                types.add(target.getType());
+            }
+        }
+
+        return types;
+    }
+}
@@ -0,0 +1,333 @@
+package com.statsmind.commons.jpa.lock;
+
+import com.statsmind.commons.concurrent.ThreadPool;
+import com.statsmind.commons.concurrent.lock.LocalLockFactory;
+import com.statsmind.commons.concurrent.lock.Lock;
+import com.statsmind.commons.concurrent.lock.LockFactory;
+import com.statsmind.commons.concurrent.lock.LockInfo;
+import com.statsmind.commons.concurrent.lock.LockType;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locks shared by several nodes through one row per lock name in a database table.
+ * <p>
+ * Usage:
+ * <pre>
+ * LockFactory locks = new JdbcLockFactory(jdbcTemplate).createTable();
+ * try (Lock lock = locks.getLock(new LockInfo().setName("order:" + id).setWaitTime(10))) {
+ *     if (lock.acquire()) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Threads of the same node queue on a {@link LocalLockFactory} first, so only one of them polls the database
+ * for a given name. Every acquisition increments the token of the row, {@link JdbcLock#getFencingToken()} lets
+ * the protected resource reject writes from a holder whose lease has expired.
+ * <p>
+ * A lock acquired with a leaseTime expires after it. Without leaseTime the lock gets a watchdog lease which
+ * this node renews until release, all of them with one statement per heartbeat, so a crashed node loses its
+ * locks after the watchdog lease. Lease deadlines are computed from the clock of each node, which must be
+ * synchronized well within the lease. {@link LockType#Read} is exclusive across nodes.
+ * <p>
+ * Locks must be acquired and released outside of transactions, otherwise other nodes do not see the row
+ * before the transaction commits.
+ */
+public class JdbcLockFactory implements LockFactory {
+    public static final String DEFAULT_TABLE = "commons_lock";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String table;
+    private final String nodeId;
+    private final LocalLockFactory localLocks = new LocalLockFactory();
+    /**
+     * locks held by this node, by name
+     */
+    private final Map<String, Held> held = new ConcurrentHashMap<>();
+    private volatile long watchdogLeaseMillis = TimeUnit.SECONDS.toMillis(30);
+    private volatile long pollIntervalMillis = 100;
+    private ScheduledFuture<?> heartbeat;
+
+    public JdbcLockFactory(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, DEFAULT_TABLE);
+    }
+
+    public JdbcLockFactory(JdbcTemplate jdbcTemplate, String table) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.nodeId = UUID.randomUUID().toString();
+    }
+
+    /**
+     * create the lock table if it does not exist yet
+     *
+     * @return
+     */
+    public JdbcLockFactory createTable() {
+        jdbcTemplate.execute("create table if not exists " + table + " (" +
+            "name varchar(255) not null primary key, " +
+            "owner varchar(64), " +
+            "node_id varchar(64), " +
+            "token bigint not null, " +
+            "expires_at bigint not null, " +
+            "renewable smallint not null)");
+        return this;
+    }
+
+    /**
+     * @param watchdogLease lease of the locks acquired without leaseTime, renewed every third of it
+     * @param unit
+     * @return
+     */
+    public JdbcLockFactory watchdogLease(long watchdogLease, TimeUnit unit) {
+        this.watchdogLeaseMillis = unit.toMillis(watchdogLease);
+        return this;
+    }
+
+    /**
+     * @param pollInterval how often a waiting thread retries while the lock is held by another node
+     * @param unit
+     * @return
+     */
+    public JdbcLockFactory pollInterval(long pollInterval, TimeUnit unit) {
+        this.pollIntervalMillis = unit.toMillis(pollInterval);
+        return this;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Lock getLock(LockInfo lockInfo) {
+        if (lockInfo.getName() == null) {
+            throw new IllegalArgumentException("lock name must not be null");
+        }
+
+        return new JdbcLock(lockInfo);
+    }
+
+    /**
+     * @return true if the row has been taken over by owner
+     */
+    private boolean tryAcquire(String name, String owner, long leaseMillis, boolean renewable) {
+        long now = System.currentTimeMillis();
+        int updated = jdbcTemplate.update("update " + table +
+                " set owner = ?, node_id = ?, token = token + 1, expires_at = ?, renewable = ?" +
+                " where name = ? and (owner is null or expires_at < ?)",
+            owner, nodeId, now + leaseMillis, renewable ? 1 : 0, name, now);
+
+        if (updated > 0) {
+            return true;
+        }
+
+        try {
+            return jdbcTemplate.update("insert into " + table +
+                    " (name, owner, node_id, token, expires_at, renewable) values (?, ?, ?, 1, ?, ?)",
+                name, owner, nodeId, now + leaseMillis, renewable ? 1 : 0) > 0;
+        } catch (DataIntegrityViolationException e) {
+            // the row exists and is held by someone else
+            return false;
+        }
+    }
+
+    private long getToken(String name, String owner) {
+        List<Long> tokens = jdbcTemplate.queryForList("select token from " + table + " where name = ? and owner = ?",
+            Long.class, name, owner);
+        return tokens.isEmpty() ? -1 : tokens.get(0);
+    }
+
+    /**
+     * @return true if owner still holds the row and its lease has not expired
+     */
+    private boolean isLeaseValid(String name, String owner) {
+        Integer rows = jdbcTemplate.queryForObject("select count(*) from " + table +
+            " where name = ? and owner = ? and expires_at >= ?", Integer.class, name, owner, System.currentTimeMillis());
+        return rows != null && rows > 0;
+    }
+
+    private void releaseRow(String name, String owner) {
+        jdbcTemplate.update("update " + table + " set owner = null, node_id = null, expires_at = 0, renewable = 0" +
+            " where name = ? and owner = ?", name, owner);
+    }
+
+    /**
+     * extend the watchdog lease of every renewable lock held by this node, in one statement
+     */
+    protected void renewLeases() {
+        if (held.values().stream().noneMatch(lock -> lock.renewable)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try {
+            jdbcTemplate.update("update " + table + " set expires_at = ?" +
+                    " where node_id = ? and renewable = 1 and owner is not null and expires_at >= ?",
+                now + watchdogLeaseMillis, nodeId, now);
+        } catch (DataAccessException e) {
+            // retried on next heartbeat, the lease is three heartbeats long
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void startHeartbeat() {
+        if (heartbeat != null) {
+            return;
+        }
+
+        ThreadPool threadPool = ThreadPool.getInstance();
+        long period = Math.max(1, watchdogLeaseMillis / 3);
+        heartbeat = threadPool.getScheduler().scheduleWithFixedDelay(
+            () -> threadPool.invoke(this::renewLeases), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stop renewing the leases, locks still held expire after the watchdog lease
+     */
+    public synchronized void shutdown() {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
+    }
+
+    private static final class Held {
+        private final String owner;
+        private final long token;
+        private final boolean renewable;
+        private int holds = 1;
+
+        Held(String owner, long token, boolean renewable) {
+            this.owner = owner;
+            this.token = token;
+            this.renewable = renewable;
+        }
+    }
+
+    public class JdbcLock implements Lock {
+        private final String name;
+        private final Lock localLock;
+        private final long waitMillis;
+        private final long leaseMillis;
+        private Held acquired;
+        private int holds;
+
+        JdbcLock(LockInfo lockInfo) {
+            this.name = lockInfo.getName();
+            this.waitMillis = lockInfo.getWaitTime() < 0 ? -1 : TimeUnit.SECONDS.toMillis(lockInfo.getWaitTime());
+            this.leaseMillis = lockInfo.getLeaseTime() <= 0 ? 0 : TimeUnit.SECONDS.toMillis(lockInfo.getLeaseTime());
+
+            LockType type = lockInfo.getType() == LockType.Fair ? LockType.Fair : LockType.Reentrant;
+            this.localLock = localLocks.getLock(new LockInfo()
+                .setName(lockInfo.getName())
+                .setType(type)
+                .setWaitTime(lockInfo.getWaitTime())
+                .setLeaseTime(0));
+        }
+
+        @Override
+        public boolean acquire() {
+            long deadline = waitMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + waitMillis;
+
+            if (!localLock.acquire()) {
+                return false;
+            }
+
+            /**
+             * the local lock is reentrant, if this node holds the row already it belongs to this thread, unless
+             * its lease has expired meanwhile and another node may have taken it over
+             */
+            Held current = held.get(name);
+            if (current != null) {
+                try {
+                    if (isLeaseValid(name, current.owner)) {
+                        current.holds++;
+                        acquired = current;
+                        holds++;
+                        return true;
+                    }
+                } catch (RuntimeException e) {
+                    localLock.release();
+                    throw e;
+                }
+
+                // the outer acquisitions keep the stale lease, their release no longer touches the row
+                held.remove(name, current);
+            }
+
+            boolean renewable = leaseMillis <= 0;
+            String owner = UUID.randomUUID().toString();
+
+            try {
+                for (; ; ) {
+                    if (tryAcquire(name, owner, renewable ? watchdogLeaseMillis : leaseMillis, renewable)) {
+                        acquired = new Held(owner, getToken(name, owner), renewable);
+                        held.put(name, acquired);
+                        holds++;
+
+                        if (renewable) {
+                            startHeartbeat();
+                        }
+                        return true;
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        localLock.release();
+                        return false;
+                    }
+
+                    long pause = Math.min(remaining, pollIntervalMillis / 2 + ThreadLocalRandom.current().nextLong(pollIntervalMillis + 1));
+                    Thread.sleep(pause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                localLock.release();
+                return false;
+            } catch (RuntimeException e) {
+                localLock.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void release() {
+            Held current = acquired;
+            if (current == null || holds == 0) {
+                return;
+            }
+
+            if (--holds == 0) {
+                acquired = null;
+            }
+
+            try {
+                if (--current.holds == 0) {
+                    held.remove(name, current);
+                    releaseRow(name, current.owner);
+                }
+            } finally {
+                localLock.release();
+            }
+        }
+
+        /**
+         * @return token of the current acquisition, strictly greater than the ones of previous acquisitions
+         * of the same name, or -1 if not held
+         */
+        public long getFencingToken() {
+            Held current = acquired;
+            return current == null ? -1 : current.token;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.statsmind.commons.jpa.page;
+
+/**
+ * Whether a {@link KeysetSlice} carries the total number of rows of the query
+ */
+public enum CountMode {
+    /**
+     * no count query
+     */
+    NONE,
+    /**
+     * a count query for every slice
+     */
+    EXACT,
+    /**
+     * a count query for the first slice only, the next slices take the count from the cursor, so it may be
+     * off by the rows written since
+     */
+    ESTIMATE
+}
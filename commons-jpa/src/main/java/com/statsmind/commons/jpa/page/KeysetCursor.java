@@ -0,0 +1,131 @@
+package com.statsmind.commons.jpa.page;
+
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The values of the sort keys of the last row of a {@link KeysetSlice}, and the total if counted once, as an
+ * opaque url-safe token.
+ * <p>
+ * Values are written as text and converted back to the types of the sort keys, nothing is deserialized, so a
+ * forged token can only move the start of the slice. Supported types are strings, numbers, booleans, enums,
+ * UUIDs, java.util.Date and its sql subclasses, and the java.time types.
+ */
+public final class KeysetCursor {
+    private final Long total;
+    private final List<Object> values;
+
+    public KeysetCursor(Long total, List<Object> values) {
+        this.total = total;
+        this.values = values;
+    }
+
+    /**
+     * @return total counted for the first slice, null if not counted
+     */
+    public Long getTotal() {
+        return total;
+    }
+
+    public List<Object> getValues() {
+        return values;
+    }
+
+    public String encode() {
+        StringBuilder text = new StringBuilder();
+        append(text, total == null ? "" : total.toString());
+
+        for (Object value : values) {
+            if (value == null) {
+                throw new IllegalArgumentException("sort keys must not be null");
+            }
+            append(text, format(value));
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token
+     * @param types types of the sort keys
+     * @return
+     * @throws IllegalArgumentException the token is not a cursor of these sort keys
+     */
+    public static KeysetCursor decode(String token, List<Class<?>> types) {
+        try {
+            String text = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+
+            List<String> parts = new ArrayList<>(types.size() + 1);
+            for (int position = 0; position < text.length(); ) {
+                int colon = text.indexOf(':', position);
+                int length = Integer.parseInt(text.substring(position, colon));
+                parts.add(text.substring(colon + 1, colon + 1 + length));
+                position = colon + 1 + length;
+            }
+
+            if (parts.size() != types.size() + 1) {
+                throw new IllegalArgumentException("cursor has " + (parts.size() - 1) + " keys, expected " + types.size());
+            }
+
+            Long total = parts.get(0).isEmpty() ? null : Long.valueOf(parts.get(0));
+            List<Object> values = new ArrayList<>(types.size());
+            for (int i = 0; i < types.size(); ++i) {
+                values.add(parse(parts.get(i + 1), types.get(i)));
+            }
+
+            return new KeysetCursor(total, values);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException | ReflectiveOperationException e) {
+            throw new IllegalArgumentException("invalid cursor", e);
+        }
+    }
+
+    private static void append(StringBuilder text, String part) {
+        text.append(part.length()).append(':').append(part);
+    }
+
+    private static String format(Object value) {
+        // Hibernate reads timestamp columns mapped as java.util.Date as Timestamps, written with their nanos
+        if (value instanceof Date && !(value instanceof java.sql.Date) && !(value instanceof java.sql.Time)) {
+            return ((Date) value).toInstant().toString();
+        }
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return value.toString();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object parse(String text, Class<?> type) throws ReflectiveOperationException {
+        if (type == String.class) {
+            return text;
+        }
+        if (type == Timestamp.class || type == Date.class) {
+            return Timestamp.from(Instant.parse(text));
+        }
+        if (type.isEnum()) {
+            return Enum.valueOf((Class<Enum>) type, text);
+        }
+        if (Temporal.class.isAssignableFrom(type)) {
+            Method parse = type.getMethod("parse", CharSequence.class);
+            return parse.invoke(null, text);
+        }
+
+        try {
+            return DefaultConversionService.getSharedInstance().convert(text, type);
+        } catch (ConversionException e) {
+            throw new IllegalArgumentException("unsupported sort key type " + type.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.statsmind.commons.jpa.page;
+
+import java.util.List;
+
+/**
+ * A page of a keyset pagination, see {@link com.statsmind.commons.jpa.JpaEntityDao#findSlice}.
+ *
+ * @param <T> type of the content
+ */
+public class KeysetSlice<T> {
+    private final List<T> content;
+    private final String nextCursor;
+    private final Long total;
+    private final boolean isEstimate;
+
+    public KeysetSlice(List<T> content, String nextCursor, Long total, boolean isEstimate) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+        this.total = total;
+        this.isEstimate = isEstimate;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return opaque token of the next slice, null if this is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /**
+     * @return number of rows of the query, null with {@link CountMode#NONE}
+     */
+    public Long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return true if the total was counted for an earlier slice, see {@link CountMode#ESTIMATE}
+     */
+    public boolean isEstimate() {
+        return isEstimate;
+    }
+}
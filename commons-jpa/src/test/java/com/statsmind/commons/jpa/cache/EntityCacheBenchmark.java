@@ -0,0 +1,110 @@
+package com.statsmind.commons.jpa.cache;
+
+import com.statsmind.commons.cache.Cache;
+import com.statsmind.commons.cache.CacheBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookup path of JpaEntityDao#findById and #existsById, with and without the tombstones of the ids not
+ * found; a fixed amount of work per query stands for the database.
+ * <p>
+ * Not run by the build, start {@link #main} from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class EntityCacheBenchmark {
+    private static final int KNOWN_IDS = 1_000;
+    private static final int UNKNOWN_IDS = 1_000;
+    /**
+     * cost of a query, far below a real round trip
+     */
+    private static final long DATABASE_TOKENS = 2_000;
+
+    @Param({"true", "false"})
+    public boolean tombstones;
+
+    private EntityCache<Long, Long> entityCache;
+
+    @Setup
+    public void setUp() {
+        Cache<Long, Long> cache = CacheBuilder.newBuilder().maximumSize(KNOWN_IDS * 2).build();
+        Cache<Long, Boolean> absent = null;
+        if (tombstones) {
+            absent = CacheBuilder.newBuilder()
+                .maximumSize(UNKNOWN_IDS * 2)
+                .expireAfterWrite(60, TimeUnit.SECONDS)
+                .build();
+        }
+        // the entity information is only read by put and evict
+        entityCache = new EntityCache<>(Long.class, null, cache, absent);
+
+        for (long id = 0; id < KNOWN_IDS; ++id) {
+            entityCache.get(id, EntityCacheBenchmark::load);
+        }
+    }
+
+    private static Long load(Long id) {
+        Blackhole.consumeCPU(DATABASE_TOKENS);
+        return id < KNOWN_IDS ? id : null;
+    }
+
+    private static boolean query(Long id) {
+        Blackhole.consumeCPU(DATABASE_TOKENS);
+        return id < KNOWN_IDS;
+    }
+
+    private static long knownId() {
+        return ThreadLocalRandom.current().nextInt(KNOWN_IDS);
+    }
+
+    private static long unknownId() {
+        return KNOWN_IDS + ThreadLocalRandom.current().nextInt(UNKNOWN_IDS);
+    }
+
+    @Benchmark
+    public Long findKnownId() {
+        return entityCache.get(knownId(), EntityCacheBenchmark::load);
+    }
+
+    @Benchmark
+    public Long findUnknownId() {
+        return entityCache.get(unknownId(), EntityCacheBenchmark::load);
+    }
+
+    @Benchmark
+    public boolean existsKnownId() {
+        return entityCache.exists(knownId(), EntityCacheBenchmark::query);
+    }
+
+    @Benchmark
+    public boolean existsUnknownId() {
+        return entityCache.exists(unknownId(), EntityCacheBenchmark::query);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EntityCacheBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,110 @@
+package com.statsmind.commons.jpa.lock;
+
+import com.statsmind.commons.concurrent.lock.Lock;
+import com.statsmind.commons.concurrent.lock.LockInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * two factories on the same embedded H2 database stand for two nodes
+ */
+class JdbcLockFactoryTest {
+    private JdbcLockFactory node1;
+    private JdbcLockFactory node2;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        node1 = new JdbcLockFactory(jdbcTemplate).createTable().pollInterval(20, TimeUnit.MILLISECONDS);
+        node2 = new JdbcLockFactory(jdbcTemplate).pollInterval(20, TimeUnit.MILLISECONDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        node1.shutdown();
+        node2.shutdown();
+    }
+
+    private static LockInfo lockInfo(long waitTime, long leaseTime) {
+        return new LockInfo().setName("order:1").setWaitTime(waitTime).setLeaseTime(leaseTime);
+    }
+
+    @Test
+    void acquireExcludesOtherNodes() {
+        JdbcLockFactory.JdbcLock lock1 = (JdbcLockFactory.JdbcLock) node1.getLock(lockInfo(0, 0));
+        JdbcLockFactory.JdbcLock lock2 = (JdbcLockFactory.JdbcLock) node2.getLock(lockInfo(0, 0));
+
+        assertTrue(lock1.acquire());
+        long token = lock1.getFencingToken();
+        assertFalse(lock2.acquire());
+
+        lock1.release();
+        assertEquals(-1, lock1.getFencingToken());
+        assertTrue(lock2.acquire());
+        assertTrue(lock2.getFencingToken() > token);
+        lock2.release();
+    }
+
+    @Test
+    void reentrantAcquireKeepsTheRow() {
+        Lock outer = node1.getLock(lockInfo(0, 0));
+        Lock inner = node1.getLock(lockInfo(0, 0));
+        Lock other = node2.getLock(lockInfo(0, 0));
+
+        assertTrue(outer.acquire());
+        assertTrue(inner.acquire());
+        inner.release();
+        assertFalse(other.acquire());
+
+        outer.release();
+        assertTrue(other.acquire());
+        other.release();
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver() {
+        JdbcLockFactory.JdbcLock lock1 = (JdbcLockFactory.JdbcLock) node1.getLock(lockInfo(0, 1));
+        JdbcLockFactory.JdbcLock lock2 = (JdbcLockFactory.JdbcLock) node2.getLock(lockInfo(3, 0));
+
+        assertTrue(lock1.acquire());
+        long token = lock1.getFencingToken();
+
+        assertTrue(lock2.acquire());
+        assertTrue(lock2.getFencingToken() > token);
+
+        // the reentrant path must not trust the expired lease of node1
+        Lock again = node1.getLock(lockInfo(0, 0));
+        assertFalse(again.acquire());
+
+        lock2.release();
+        assertTrue(again.acquire());
+        again.release();
+        lock1.release();
+    }
+
+    @Test
+    void watchdogRenewsTheLease() throws InterruptedException {
+        node1.watchdogLease(300, TimeUnit.MILLISECONDS);
+        Lock lock1 = node1.getLock(lockInfo(0, 0));
+        Lock lock2 = node2.getLock(lockInfo(0, 0));
+
+        assertTrue(lock1.acquire());
+        Thread.sleep(1000);
+        assertFalse(lock2.acquire());
+
+        lock1.release();
+        assertTrue(lock2.acquire());
+        lock2.release();
+    }
+}
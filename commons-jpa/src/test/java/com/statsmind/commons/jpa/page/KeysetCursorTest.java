@@ -0,0 +1,64 @@
+package com.statsmind.commons.jpa.page;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeysetCursorTest {
+    private static KeysetCursor roundTrip(KeysetCursor cursor, List<Class<?>> types) {
+        return KeysetCursor.decode(cursor.encode(), types);
+    }
+
+    @Test
+    void timestampOfDateKeyKeepsItsNanos() {
+        // what Hibernate returns for a java.util.Date attribute mapped to a timestamp column
+        Timestamp value = Timestamp.from(Instant.parse("2024-03-01T10:15:30.123456789Z"));
+
+        KeysetCursor decoded = roundTrip(new KeysetCursor(null, Arrays.asList(value, 42L)),
+            Arrays.asList(Date.class, Long.class));
+
+        assertEquals(value, decoded.getValues().get(0));
+        assertEquals(42L, decoded.getValues().get(1));
+        assertNull(decoded.getTotal());
+    }
+
+    @Test
+    void plainDateAndTimestampKeys() {
+        Date date = new Date(1709288130123L);
+        Timestamp timestamp = Timestamp.from(Instant.parse("2024-03-01T10:15:30.000000001Z"));
+
+        KeysetCursor decoded = roundTrip(new KeysetCursor(7L, Arrays.asList(date, timestamp)),
+            Arrays.asList(Date.class, Timestamp.class));
+
+        assertEquals(date.getTime(), ((Date) decoded.getValues().get(0)).getTime());
+        assertEquals(timestamp, decoded.getValues().get(1));
+        assertEquals(7L, decoded.getTotal());
+    }
+
+    @Test
+    void otherKeyTypes() {
+        UUID id = UUID.randomUUID();
+        LocalDateTime time = LocalDateTime.parse("2024-03-01T10:15:30.5");
+
+        KeysetCursor decoded = roundTrip(new KeysetCursor(null, Arrays.asList("a:b", time, CountMode.EXACT, id)),
+            Arrays.asList(String.class, LocalDateTime.class, CountMode.class, UUID.class));
+
+        assertEquals(Arrays.asList("a:b", time, CountMode.EXACT, id), decoded.getValues());
+    }
+
+    @Test
+    void cursorOfOtherKeysIsRejected() {
+        String token = new KeysetCursor(null, Arrays.asList(1L, 2L)).encode();
+
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode(token, Arrays.asList(Long.class)));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode("not a cursor", Arrays.asList(Long.class)));
+    }
+}
@@ -3,18 +3,26 @@ package com.statsmind.commons.plugin;
 import org.springframework.context.ApplicationContext;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PluginContext {
     private ApplicationContext applicationContext;
     private HashMap<String, Object> properties = new HashMap<>();
+    /**
+     * 单例 bean 按类型缓存，clone 出来的 context 共用同一个缓存
+     */
+    private final Map<Class<?>, Object> beans;
 
     public PluginContext(ApplicationContext context) {
         this.applicationContext = context;
+        this.beans = new ConcurrentHashMap<>();
     }
 
     public PluginContext(PluginContext another) {
         this.applicationContext = another.applicationContext;
         this.properties = (HashMap<String, Object>) another.properties.clone();
+        this.beans = another.beans;
     }
 
     public ApplicationContext getApplicationContext() {
@@ -45,7 +53,47 @@ public class PluginContext {
         return new PluginContext(this);
     }
 
+    /**
+     * 单例 bean 只向 ApplicationContext 查询一次，prototype 等其它 scope 的 bean 每次都查询
+     *
+     * @param clazz
+     * @param <T>
+     * @return
+     */
     public <T> T getBean(Class<T> clazz) {
-        return this.applicationContext.getBean(clazz);
+        Object cached = beans.get(clazz);
+        if (cached != null) {
+            return clazz.cast(cached);
+        }
+
+        T bean = this.applicationContext.getBean(clazz);
+
+        String[] names = this.applicationContext.getBeanNamesForType(clazz);
+        boolean singleton = names.length > 0;
+        for (String name : names) {
+            singleton &= this.applicationContext.isSingleton(name);
+        }
+        if (singleton) {
+            beans.put(clazz, bean);
+        }
+
+        return bean;
+    }
+
+    /**
+     * ApplicationContext 刷新后调用，丢弃缓存的 bean
+     */
+    public void clearBeanCache() {
+        beans.clear();
+    }
+
+    /**
+     * 插件停止时调用，丢弃由该插件的 ClassLoader 加载的类型及 bean，避免缓存一直引用已停止插件的 ClassLoader
+     *
+     * @param classLoader
+     */
+    public void evictBeans(ClassLoader classLoader) {
+        beans.entrySet().removeIf(entry -> entry.getKey().getClassLoader() == classLoader
+            || entry.getValue().getClass().getClassLoader() == classLoader);
     }
 }
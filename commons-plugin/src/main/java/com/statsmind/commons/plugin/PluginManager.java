@@ -24,6 +24,10 @@ import static java.nio.file.StandardWatchEventKinds.*;
 public class PluginManager {
     private final Map<String, AbstractPlugin> plugins = new HashMap<>();
     private final Map<Path, Date> pluginQueue = new HashMap<>();
+    /**
+     * 按优先级排好序的插件快照，插件启停时整体替换 (copy-on-write)，事件分发时不排序也不分配内存
+     */
+    private volatile AbstractPlugin[] dispatchOrder = new AbstractPlugin[0];
 
     private final PluginContext pluginContext;
     private final Path pluginPath;
@@ -55,9 +59,18 @@ public class PluginManager {
         /**
          * Event 的执行应该是同步的，发起者要等待返回结果
          */
-        plugins.values().stream()
-            .sorted(Comparator.comparingInt(AbstractPlugin::getPriority))
-            .forEach(plugin -> plugin.onEvent(event));
+        for (AbstractPlugin plugin : dispatchOrder) {
+            plugin.onEvent(event);
+        }
+    }
+
+    /**
+     * 插件集合变化后重建分发快照，调用者持有 this 锁
+     */
+    private void rebuildDispatchOrder() {
+        AbstractPlugin[] snapshot = plugins.values().toArray(new AbstractPlugin[0]);
+        Arrays.sort(snapshot, Comparator.comparingInt(AbstractPlugin::getPriority));
+        dispatchOrder = snapshot;
     }
 
     public synchronized void startPlugin(Class<?> pluginClass, Path pluginJar) {
@@ -88,6 +101,7 @@ public class PluginManager {
             plugin.onStarted();
 
             plugins.put(pluginInterface.value(), plugin);
+            rebuildDispatchOrder();
 
             if (pluginCallback != null) {
                 pluginCallback.onPluginStarted(plugin);
@@ -112,6 +126,12 @@ public class PluginManager {
 
             oldPlugin.onStopped();
             plugins.remove(pluginInterface.value());
+            rebuildDispatchOrder();
+
+            ClassLoader pluginLoader = oldPlugin.getClass().getClassLoader();
+            if (pluginLoader != getClass().getClassLoader()) {
+                oldPlugin.getContext().evictBeans(pluginLoader);
+            }
 
             if (pluginCallback != null) {
                 pluginCallback.onPluginRemoved(oldPlugin);